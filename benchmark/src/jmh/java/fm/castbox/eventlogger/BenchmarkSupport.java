@@ -0,0 +1,53 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Sets up the singleton logger once per forked JVM.
+ */
+final class BenchmarkSupport {
+
+    private BenchmarkSupport() {
+    }
+
+    @NonNull
+    static EventLogger logger(boolean async, @NonNull EventSink... sinks) {
+        EventLogger logger = EventLogger.getInstance();
+        if (async)
+            logger.enableAsyncDispatch(64 * 1024, OverflowPolicy.DROP_OLDEST);
+        for (EventSink sink : sinks) {
+            logger.addEventSink(sink);
+        }
+        logger.init(new Application(), new EventLogger.EventLoggerCallback() {
+            @Override
+            public boolean needExtendSession(String eventName, String category) {
+                return false;
+            }
+        });
+        return logger;
+    }
+
+    @NonNull
+    static Map<String, Object> extras(int count) {
+        Map<String, Object> extra = new HashMap<>();
+        for (int i = 0; i < count; i++) {
+            switch (i % 3) {
+                case 0:
+                    extra.put("long_" + i, (long) i);
+                    break;
+                case 1:
+                    extra.put("double_" + i, i * 0.5);
+                    break;
+                default:
+                    extra.put("string_" + i, "value_" + i);
+                    break;
+            }
+        }
+        return extra;
+    }
+}
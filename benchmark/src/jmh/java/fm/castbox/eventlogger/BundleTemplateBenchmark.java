@@ -0,0 +1,84 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Extend session check and firebase bundle of a user action: the callback and the bundle built
+ * from scratch as before, against the remembered answer and the bundle templates of the sink.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class BundleTemplateBenchmark {
+
+    private static final String[] EXTEND_SESSION = {"play", "download", "subscribe"};
+
+    private final EventLogger.EventLoggerCallback callback = new EventLogger.EventLoggerCallback() {
+        @Override
+        public boolean needExtendSession(String eventName, String category) {
+            for (String name : EXTEND_SESSION) {
+                if (name.equals(category))
+                    return true;
+            }
+            return false;
+        }
+    };
+    private final ExtendSessionCache cache = new ExtendSessionCache(callback);
+    private final FirebaseEventSink sink = new FirebaseEventSink(new Application());
+    private Event event;
+
+    @Setup
+    public void setUp() {
+        event = Event.obtain(EventLogger.EVENT_NAME_USER_ACTION)
+                .category("play")
+                .itemName("episode")
+                .screen("EpisodeDetailFragment")
+                .putLong("position", 1234L)
+                .putString("source", "download");
+    }
+
+    @TearDown
+    public void tearDown() {
+        event.release();
+    }
+
+    @Benchmark
+    public Bundle rebuild() {
+        event.extendSession(callback.needExtendSession(event.getName(), event.getCategory()));
+        Bundle bundle = event.toBundle();
+        if (event.isExtendSession())
+            bundle.putLong("extend_session", 1);
+        if (!TextUtils.isEmpty(event.getCategory()))
+            bundle.putString("item_category", event.getCategory());
+        if (!TextUtils.isEmpty(event.getScreen()))
+            bundle.putString("screen", event.getScreen());
+        if (!TextUtils.isEmpty(event.getItemName()))
+            bundle.putString("item_name", event.getItemName());
+        return bundle;
+    }
+
+    @Benchmark
+    public void template() {
+        event.extendSession(cache.needExtendSession(event.getName(), event.getCategory()));
+        sink.logEvent(event);
+    }
+}
@@ -0,0 +1,63 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Install referrer / campaign url parsing, the single pass {@link CampaignInfo} parser against
+ * the split and decode based one it replaced.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class CampaignParserBenchmark {
+
+    static final String SHORT_REFERRER = "utm_source=google-play&utm_medium=organic";
+    static final String LONG_REFERRER = "https://play.google.com/store/apps/details?id=fm.castbox.audiobook.radio.podcast"
+            + "&utm_source=adwords&utm_medium=cpc&utm_campaign=podcast%20lovers%20%28US%29&utm_term=true%20crime%20podcast"
+            + "&utm_content=banner_728x90&gclid=Cj0KCQiA4feBBhC9ARIsABp_nbVtTaSsIq-K8fj9kkV0WBUkHSC4Ocq4k3Ca9Nkp5RbNkXb6Z0Rk8aAkxQEALw_wcB"
+            + "&keyword=podcast%20app&campaignid=1234567890&adgroupid=98765432100&creative=456789123456&network=g&device=m";
+
+    static final String ENCODED_REFERRER = "utm_source%3Dadwords%26utm_medium%3Dcpc%26utm_campaign%3Dpodcast%2520lovers"
+            + "%26utm_term%3Dtrue%2520crime%26gclid%3DCj0KCQiA4feBBhC9ARIsABp_nbVtTaSsIq";
+
+    @Param({"short", "long", "encoded"})
+    public String referrer;
+
+    private String url;
+
+    @Setup
+    public void setUp() {
+        if ("short".equals(referrer))
+            url = SHORT_REFERRER;
+        else if ("long".equals(referrer))
+            url = LONG_REFERRER;
+        else
+            url = ENCODED_REFERRER;
+    }
+
+    @Benchmark
+    public Map<String, String> legacy() {
+        return LegacyQueryParser.getQueryParameters(url);
+    }
+
+    @Benchmark
+    public CampaignInfo campaignInfo() {
+        return CampaignInfo.parse(url);
+    }
+}
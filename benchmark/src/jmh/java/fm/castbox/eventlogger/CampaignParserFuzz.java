@@ -0,0 +1,83 @@
+package fm.castbox.eventlogger;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares {@link CampaignInfo#parse(String)} with {@link LegacyQueryParser} on random referrers,
+ * run with {@code ./gradlew :benchmark:campaignFuzz}.
+ * <p>
+ * Referrers are built from plain characters, '+' and percent escapes which decode to the same
+ * text once or twice: escaped '%', '&amp;', '=' and '+' are left out, since the legacy parser
+ * decodes twice and splits decoded text, which is the behavior CampaignInfo fixes.
+ */
+public final class CampaignParserFuzz {
+
+    private static final String[] KEYS = {
+            CampaignInfo.KEY_UTM_SOURCE, CampaignInfo.KEY_UTM_MEDIUM, CampaignInfo.KEY_UTM_CAMPAIGN,
+            CampaignInfo.KEY_UTM_TERM, CampaignInfo.KEY_UTM_CONTENT, CampaignInfo.KEY_KEYWORD,
+            CampaignInfo.KEY_CAMPAIGN_ID, CampaignInfo.KEY_GCLID, "id", "adgroupid", "network"
+    };
+    private static final String[] ESCAPES = {"%20", "%28", "%29", "%2F", "%3A", "%C3%A9", "%E4%B8%AD"};
+    private static final String PLAIN = "abcXYZ019-_.~()";
+
+    private CampaignParserFuzz() {
+    }
+
+    public static void main(String[] args) {
+        final int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        final Random random = new Random(args.length > 1 ? Long.parseLong(args[1]) : 42L);
+        int mismatches = 0;
+        for (int i = 0; i < iterations; i++) {
+            String referrer = randomReferrer(random);
+            Map<String, String> expected = LegacyQueryParser.getQueryParameters(referrer);
+            CampaignInfo actual = CampaignInfo.parse(referrer);
+            for (String key : KEYS) {
+                String value = actual.get(key);
+                if (value == null && !isCampaignKey(key))
+                    continue;
+                if (!equals(expected.get(key), value)) {
+                    if (++mismatches <= 20)
+                        System.out.printf("Mismatch for %s in %s: expected %s, got %s%n", key, referrer, expected.get(key), value);
+                }
+            }
+        }
+        System.out.printf("%d referrers, %d mismatches%n", iterations, mismatches);
+        if (mismatches > 0)
+            System.exit(1);
+    }
+
+    private static boolean isCampaignKey(String key) {
+        return CampaignInfo.parse(key + "=x").get(key) != null;
+    }
+
+    private static String randomReferrer(Random random) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextInt(4) == 0)
+            sb.append("https://play.google.com/store/apps/details?");
+        int pairs = random.nextInt(8);
+        for (int i = 0; i < pairs; i++) {
+            if (i > 0)
+                sb.append('&');
+            sb.append(KEYS[random.nextInt(KEYS.length)]);
+            if (random.nextInt(10) > 0) {
+                sb.append('=');
+                int length = random.nextInt(12);
+                for (int c = 0; c < length; c++) {
+                    int kind = random.nextInt(10);
+                    if (kind == 0)
+                        sb.append('+');
+                    else if (kind == 1)
+                        sb.append(ESCAPES[random.nextInt(ESCAPES.length)]);
+                    else
+                        sb.append(PLAIN.charAt(random.nextInt(PLAIN.length())));
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,59 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller side cost of the public log methods with several threads logging at once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ContendedLogBenchmark {
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    private EventLogger logger;
+    private Map<String, Object> extra;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = BenchmarkSupport.logger(async, new StubSink("firebase-stub"), new StubSink("facebook-stub"));
+        extra = BenchmarkSupport.extras(4);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        logger.flush();
+    }
+
+    @Benchmark
+    public void logAction() {
+        logger.logAction("player", "play");
+    }
+
+    @Benchmark
+    public void logEventValue() {
+        logger.logEventValue("play_progress", "player", "episode", 42L, extra);
+    }
+}
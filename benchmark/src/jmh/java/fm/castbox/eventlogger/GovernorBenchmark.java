@@ -0,0 +1,59 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rate limit and sampling decisions with several threads logging the same event names.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Threads(4)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class GovernorBenchmark {
+
+    private final EventGovernor governor = EventGovernor.compile(new RateLimits()
+            .limit("play_progress", 1000, 100)
+            .limitCategory("scroll", 10, 5)
+            .sample("buffer_stall", 0.1));
+    private final long samplingKey = EventGovernor.samplingKey("benchmark-user");
+
+    @Benchmark
+    public boolean unlimited() {
+        return admit(Event.obtain("play").category("player"));
+    }
+
+    @Benchmark
+    public boolean limited() {
+        return admit(Event.obtain("play_progress").category("player"));
+    }
+
+    @Benchmark
+    public boolean limitedCategory() {
+        return admit(Event.obtain("list_scroll").category("scroll"));
+    }
+
+    @Benchmark
+    public boolean sampled() {
+        return admit(Event.obtain("buffer_stall").category("player"));
+    }
+
+    private boolean admit(Event event) {
+        boolean admitted = governor.admit(event, samplingKey);
+        event.release();
+        return admitted;
+    }
+}
@@ -0,0 +1,103 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the batching pipeline into {@link HttpEventSink} posting to a {@link LocalCollector},
+ * run with {@code ./gradlew :benchmark:httpSink}. Options:
+ * <ul>
+ * <li>{@code --events=N} events logged, 100000 by default.</li>
+ * <li>{@code --threads=N} logging threads, 1 by default.</li>
+ * <li>{@code --batch=N} max batch size, 50 by default.</li>
+ * <li>{@code --age=MS} max batch age, 1000 by default.</li>
+ * <li>{@code --latency=MS} time the collector takes to answer, 0 by default.</li>
+ * <li>{@code --fail=RATE} fraction of the requests the collector fails, 0 by default.</li>
+ * </ul>
+ * Reports the cost of the log calls, the end to end rate until the collector got every event,
+ * and the batch statistics of the sink.
+ */
+public final class HttpSinkBenchmark {
+
+    private static final String SINK_NAME = "collector";
+
+    private HttpSinkBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int batch = 50;
+        long age = 1000L;
+        long latency = 0L;
+        double fail = 0;
+        int eventCount = 100000;
+        int threadCount = 1;
+        for (String arg : args) {
+            String value = arg.indexOf('=') > 0 ? arg.substring(arg.indexOf('=') + 1) : "";
+            if (arg.startsWith("--events="))
+                eventCount = Integer.parseInt(value);
+            else if (arg.startsWith("--threads="))
+                threadCount = Integer.parseInt(value);
+            else if (arg.startsWith("--batch="))
+                batch = Integer.parseInt(value);
+            else if (arg.startsWith("--age="))
+                age = Long.parseLong(value);
+            else if (arg.startsWith("--latency="))
+                latency = Long.parseLong(value);
+            else if (arg.startsWith("--fail="))
+                fail = Double.parseDouble(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + arg);
+        }
+        final int events = eventCount;
+        final int threads = threadCount;
+
+        LocalCollector collector = new LocalCollector(latency, fail);
+        final EventLogger logger = EventLogger.getInstance()
+                .addEventSink(new HttpEventSink(SINK_NAME, collector.getUrl(), new BatchPolicy(batch, age)))
+                .init(new Application(), null);
+
+        final LatencyHistogram calls = new LatencyHistogram();
+        final CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            final int first = t * events / threads;
+            final int last = (t + 1) * events / threads;
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = first; i < last; i++) {
+                        long begin = System.nanoTime();
+                        logger.log(Event.obtain("play_progress").category("player").itemName("episode")
+                                .putLong("position", i).putString("source", "benchmark"));
+                        calls.record(System.nanoTime() - begin);
+                    }
+                    done.countDown();
+                }
+            }, "logger-" + t);
+            thread.start();
+        }
+        done.await();
+        logger.flush();
+
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        BatchStats stats = logger.getBatchStats(SINK_NAME);
+        while (collector.events.get() + stats.getDroppedCount() + logger.getDroppedEventCount() < events
+                && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+            stats = logger.getBatchStats(SINK_NAME);
+        }
+        long elapsed = System.nanoTime() - start;
+        collector.stop();
+
+        System.out.printf("log calls: p50 %d ns, p99 %d ns, max %d ns%n",
+                calls.quantile(0.5), calls.quantile(0.99), calls.getMaxNanos());
+        System.out.printf("collector: %d of %d events in %d requests, %.1f ms, %.0f events/s, %d bytes/request%n",
+                collector.events.get(), events, collector.requests.get(), elapsed / 1e6,
+                collector.events.get() * 1e9 / elapsed, collector.bytes.get() / Math.max(1, collector.requests.get()));
+        System.out.printf("%s, failed requests %d, dropped by queues %d%n",
+                stats, collector.failures.get(), logger.getDroppedEventCount());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,44 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The referrer parser EventLogger used before {@link CampaignInfo}, kept as the baseline of the
+ * parser benchmark and fuzzer.
+ */
+final class LegacyQueryParser {
+
+    private LegacyQueryParser() {
+    }
+
+    static Map<String, String> getQueryParameters(@NonNull String query) {
+        if (query.startsWith("http://") || query.startsWith("https://")) {
+            String[] pairs = query.split("\\?");
+            if (pairs.length > 1)
+                query = pairs[1];
+            else
+                query = "";
+        }
+
+        try {
+            query = URLDecoder.decode(query, "UTF-8");
+        } catch (Throwable ignored) {
+        }
+
+        final Map<String, String> params = new HashMap<>();
+        for (String param : query.split("&")) {
+            String pair[] = param.split("=");
+            try {
+                String key = URLDecoder.decode(pair[0], "UTF-8");
+                String value = pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "";
+                params.put(key, value);
+            } catch (Throwable ignored) {
+            }
+        }
+        return params;
+    }
+}
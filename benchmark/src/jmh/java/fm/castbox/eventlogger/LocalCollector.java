@@ -0,0 +1,107 @@
+package fm.castbox.eventlogger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the in-house collector on localhost, for {@link HttpEventSink} on a plain JVM.
+ * It counts the requests and the events posted, optionally answering late or with an error.
+ */
+final class LocalCollector {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String EVENT_START = "{\"type\":";
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong events = new AtomicLong();
+    final AtomicLong bytes = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    private final HttpServer server;
+    private final long latencyMillis;
+    private final double failureRate;
+    private final Random random = new Random(42);
+
+    /**
+     * @param latencyMillis time to wait before answering a request.
+     * @param failureRate   fraction of the requests answered with 503.
+     */
+    LocalCollector(long latencyMillis, double failureRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.failureRate = failureRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/events", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                collect(exchange);
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+    }
+
+    URL getUrl() throws IOException {
+        return new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/events");
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    private void collect(HttpExchange exchange) throws IOException {
+        byte[] body = readFully(exchange.getRequestBody());
+        requests.incrementAndGet();
+        bytes.addAndGet(body.length);
+        if (latencyMillis > 0) {
+            try {
+                Thread.sleep(latencyMillis);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        boolean fail;
+        synchronized (random) {
+            fail = random.nextDouble() < failureRate;
+        }
+        if (fail) {
+            failures.incrementAndGet();
+        } else {
+            events.addAndGet(count(new String(body, UTF_8)));
+        }
+        exchange.sendResponseHeaders(fail ? 503 : 204, -1);
+        exchange.close();
+    }
+
+    /**
+     * @return number of events in a JSON array written by {@link HttpEventSink#toJson}.
+     */
+    private static int count(String json) {
+        int count = 0;
+        for (int i = json.indexOf(EVENT_START); i >= 0; i = json.indexOf(EVENT_START, i + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caller side cost of the public log methods from a single thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class LogBenchmark {
+
+    @Param({"false", "true"})
+    public boolean async;
+
+    @Param({"0", "4", "16"})
+    public int extras;
+
+    private EventLogger logger;
+    private Map<String, Object> extra;
+    private String[] keys;
+    private final Activity activity = new Activity();
+    private long counter;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = BenchmarkSupport.logger(async, new StubSink("firebase-stub"), new StubSink("facebook-stub"));
+        extra = BenchmarkSupport.extras(extras);
+        keys = extra.keySet().toArray(new String[extra.size()]);
+    }
+
+    @TearDown(Level.Iteration)
+    public void drain() {
+        logger.flush();
+    }
+
+    @Benchmark
+    public void logAction() {
+        logger.logAction("player", "play");
+    }
+
+    @Benchmark
+    public void logEventValue() {
+        logger.logEventValue("play_progress", "player", "episode", ++counter, extra);
+    }
+
+    @Benchmark
+    public void logPooledEvent() {
+        Event event = Event.obtain("play_progress").category("player").itemName("episode").value(++counter);
+        for (String key : keys) {
+            event.putLong(key, counter);
+        }
+        logger.log(event);
+    }
+
+    @Benchmark
+    public void logScreen() {
+        logger.logScreen(activity, "fm.castbox.audio.radio.podcast.ui.play.EpisodeDetailFragment");
+        logger.logScreenPause("fm.castbox.audio.radio.podcast.ui.play.EpisodeDetailFragment");
+    }
+}
@@ -0,0 +1,188 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Hand-off latency and throughput of events from a secondary process to the main process, run
+ * with {@code ./gradlew :benchmark:processFunnel}.
+ * <p>
+ * The main process starts a second JVM sharing its files dir, which logs events stamped with
+ * {@link System#nanoTime()}, a clock shared by the processes on Linux. Options:
+ * <ul>
+ * <li>{@code --mode=logger} (default) logs through {@link EventLogger#enableMultiProcess(boolean)},
+ * the main process drains the ring every 200ms; {@code --mode=ring} appends to the ring directly
+ * and drains it in a loop, the cost of the hand-off itself.</li>
+ * <li>{@code --events=N} number of events, 100000 by default.</li>
+ * <li>{@code --rate=N} events per second, 0 (default) as fast as possible.</li>
+ * </ul>
+ */
+public final class ProcessFunnelBenchmark {
+
+    private static final String EVENT_NAME = "handoff";
+    private static final String KEY_SENT = "sent";
+    private static final int RING_CAPACITY = 256 * 1024;
+
+    private ProcessFunnelBenchmark() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        boolean child = false;
+        boolean ring = false;
+        int events = 100000;
+        int rate = 0;
+        for (String arg : args) {
+            String value = arg.indexOf('=') > 0 ? arg.substring(arg.indexOf('=') + 1) : "";
+            if (arg.equals("--child"))
+                child = true;
+            else if (arg.startsWith("--mode="))
+                ring = "ring".equals(value);
+            else if (arg.startsWith("--events="))
+                events = Integer.parseInt(value);
+            else if (arg.startsWith("--rate="))
+                rate = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + arg);
+        }
+        if (child)
+            produce(ring, events, rate);
+        else
+            consume(ring, events, args);
+        System.exit(0);
+    }
+
+    /**
+     * Secondary process: log the events and report the caller side cost.
+     */
+    private static void produce(boolean ring, int events, int rate) throws Exception {
+        Application application = new Application();
+        ProcessRing outbox = null;
+        EventLogger logger = null;
+        if (ring)
+            outbox = ProcessRing.open(funnelFile(application), RING_CAPACITY);
+        else
+            logger = EventLogger.getInstance().enableMultiProcess(false).init(application, null);
+
+        LatencyHistogram latency = new LatencyHistogram();
+        long interval = rate > 0 ? TimeUnit.SECONDS.toNanos(1) / rate : 0L;
+        long start = System.nanoTime();
+        for (int i = 0; i < events; i++) {
+            if (interval > 0) {
+                long wait = start + i * interval - System.nanoTime();
+                if (wait > 0)
+                    LockSupport.parkNanos(wait);
+            }
+            long sent = System.nanoTime();
+            Event event = Event.obtain(EVENT_NAME).category("player").itemName("episode").putLong(KEY_SENT, sent);
+            if (outbox != null) {
+                outbox.offer(event);
+                event.release();
+            } else {
+                logger.log(event);
+            }
+            latency.record(System.nanoTime() - sent);
+        }
+        System.out.printf("producer: %d events, call p50 %d ns, p99 %d ns, dropped %d%n", events,
+                latency.quantile(0.5), latency.quantile(0.99), outbox != null ? outbox.getDroppedCount() : logger.getDroppedEventCount());
+    }
+
+    /**
+     * Main process: start the producer and time the events it hands over.
+     */
+    private static void consume(boolean ring, int events, String[] args) throws Exception {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "eventlogger-funnel-" + System.nanoTime());
+        System.setProperty("eventlogger.filesDir", dir.getPath());
+        Application application = new Application();
+
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong firstSent = new AtomicLong();
+        final AtomicLong lastReceived = new AtomicLong();
+        ProcessRing.Output output = new ProcessRing.Output() {
+            @Override
+            public void emit(@NonNull Event event) {
+                record(event, latency, firstSent, lastReceived);
+                event.release();
+            }
+        };
+        ProcessRing inbox = null;
+        if (ring) {
+            inbox = ProcessRing.open(funnelFile(application), RING_CAPACITY);
+        } else {
+            EventLogger.getInstance().enableMultiProcess(true).addEventSink(new AbstractEventSink() {
+                @NonNull
+                @Override
+                public String getName() {
+                    return "latency";
+                }
+
+                @Override
+                public void logEvent(@NonNull Event event) {
+                    record(event, latency, firstSent, lastReceived);
+                }
+            }).init(application, null);
+        }
+
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-Deventlogger.filesDir=" + dir.getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(ProcessFunnelBenchmark.class.getName());
+        command.add("--child");
+        for (String arg : args) {
+            command.add(arg);
+        }
+        Process producer = new ProcessBuilder(command).inheritIO().start();
+
+        long deadline = System.nanoTime() + TimeUnit.MINUTES.toNanos(2);
+        boolean exited = false;
+        while (latency.getCount() < events && System.nanoTime() < deadline) {
+            if (inbox != null) {
+                if (inbox.drain(output) == 0)
+                    Thread.yield();
+            } else {
+                Thread.sleep(10);
+            }
+            if (!exited) {
+                try {
+                    producer.exitValue();
+                    exited = true;
+                    // whatever is left is in the ring now
+                    deadline = Math.min(deadline, System.nanoTime() + TimeUnit.SECONDS.toNanos(2));
+                } catch (IllegalThreadStateException ignored) {
+                }
+            }
+        }
+        producer.waitFor();
+
+        long count = latency.getCount();
+        long elapsed = lastReceived.get() - firstSent.get();
+        System.out.printf("consumer: %d of %d events in %.1f ms, %.0f events/s%n", count, events,
+                elapsed / 1e6, count == 0 ? 0.0 : count * 1e9 / elapsed);
+        System.out.printf("hand-off latency: p50 %.3f ms, p99 %.3f ms, max %.3f ms%n",
+                latency.quantile(0.5) / 1e6, latency.quantile(0.99) / 1e6, latency.getMaxNanos() / 1e6);
+    }
+
+    private static void record(Event event, LatencyHistogram latency, AtomicLong firstSent, AtomicLong lastReceived) {
+        int index = event.indexOf(KEY_SENT);
+        if (!EVENT_NAME.equals(event.getName()) || index < 0)
+            return;
+        long now = System.nanoTime();
+        long sent = event.getLong(index);
+        firstSent.compareAndSet(0L, sent);
+        lastReceived.set(now);
+        latency.record(now - sent);
+    }
+
+    private static File funnelFile(Application application) {
+        return new File(application.getFilesDir(), "eventlogger/funnel");
+    }
+}
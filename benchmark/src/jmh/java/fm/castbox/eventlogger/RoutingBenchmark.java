@@ -0,0 +1,82 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Event name filter hits and misses, compiled routing rules against a plain hash set.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RoutingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int rules;
+
+    private EventRouter router;
+    private Set<String> filter;
+    // not the same instances as the rule keys
+    private String hit;
+    private String prefixHit;
+    private String miss;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        RoutingRules routingRules = new RoutingRules();
+        filter = new HashSet<>();
+        for (int i = 0; i < rules; i++) {
+            routingRules.allow("event_" + i);
+            filter.add("event_" + i);
+            if (i % 10 == 0)
+                routingRules.allowPrefix("prefix_" + i + "_");
+        }
+        routingRules.deny("event_denied");
+        router = EventRouter.compile(routingRules);
+        hit = new StringBuilder("event_").append(rules / 2).toString();
+        prefixHit = "prefix_0_play";
+        miss = "user_action_unknown";
+    }
+
+    @Benchmark
+    public boolean routerHit() {
+        return router.accept(hit, "player");
+    }
+
+    @Benchmark
+    public boolean routerPrefixHit() {
+        return router.accept(prefixHit, "player");
+    }
+
+    @Benchmark
+    public boolean routerMiss() {
+        return router.accept(miss, "player");
+    }
+
+    @Benchmark
+    public boolean hashSetHit() {
+        return filter.contains(hit);
+    }
+
+    @Benchmark
+    public boolean hashSetMiss() {
+        return filter.contains(miss);
+    }
+}
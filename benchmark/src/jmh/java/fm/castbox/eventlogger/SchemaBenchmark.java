@@ -0,0 +1,66 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schema check of an event, building the event included: without schema, a declared event whose
+ * parameters already match, one whose parameters are converted, and an undeclared event.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class SchemaBenchmark {
+
+    private final EventValidator validator = EventValidator.compile(new EventSchema()
+            .param("play_progress", "episode_id", Event.PARAM_STRING)
+            .param("play_progress", "position", Event.PARAM_LONG)
+            .param("play_progress", "speed", Event.PARAM_DOUBLE));
+
+    @Benchmark
+    public boolean baseline() {
+        Event event = Event.obtain("play_progress").category("player")
+                .putString("episode_id", "e123").putLong("position", 1234L).putDouble("speed", 1.5);
+        event.release();
+        return true;
+    }
+
+    @Benchmark
+    public boolean declared() {
+        Event event = Event.obtain("play_progress").category("player")
+                .putString("episode_id", "e123").putLong("position", 1234L).putDouble("speed", 1.5);
+        boolean valid = validator.validate(event, false);
+        event.release();
+        return valid;
+    }
+
+    @Benchmark
+    public boolean coerced() {
+        Event event = Event.obtain("play_progress").category("player")
+                .putLong("episode_id", 123L).putString("position", "1234").putInt("speed", 1);
+        boolean valid = validator.validate(event, false);
+        event.release();
+        return valid;
+    }
+
+    @Benchmark
+    public boolean undeclared() {
+        Event event = Event.obtain("user_action").category("player")
+                .putString("source", "download").putLong("position", 1234L);
+        boolean valid = validator.validate(event, false);
+        event.release();
+        return valid;
+    }
+}
@@ -0,0 +1,66 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Short screen name per fragment transition: the split based shortening logScreen used to do,
+ * the registry lookup behind {@link ScreenKey#of(String)} and a {@link ScreenKey} held by the
+ * caller.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScreenNameBenchmark {
+
+    private static final String[] SCREENS = {
+            "fm.castbox.audio.radio.podcast.ui.main.HomeFragment",
+            "fm.castbox.audio.radio.podcast.ui.play.episode.EpisodeDetailFragment",
+            "fm.castbox.audio.radio.podcast.ui.search.SearchResultFragment",
+            "fm.castbox.audio.radio.podcast.ui.personal.PersonalSubscribedChannelsFragment",
+    };
+    private static final ScreenKey[] KEYS = new ScreenKey[SCREENS.length];
+
+    static {
+        for (int i = 0; i < SCREENS.length; i++)
+            KEYS[i] = ScreenKey.of(SCREENS[i]);
+    }
+
+    private int index;
+
+    @Benchmark
+    public String split() {
+        String[] names = SCREENS[next()].split("\\.");
+        String shortScreenName = names[names.length - 1];
+        if (shortScreenName.length() > 36)
+            shortScreenName = shortScreenName.substring(0, 36);
+        return shortScreenName;
+    }
+
+    @Benchmark
+    public String registry() {
+        return ScreenKey.of(SCREENS[next()]).shortScreenName;
+    }
+
+    @Benchmark
+    public String screenKey() {
+        return KEYS[next()].shortScreenName;
+    }
+
+    private int next() {
+        index = (index + 1) & 3;
+        return index;
+    }
+}
@@ -0,0 +1,252 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Enters and pauses screens from many threads at once and checks every event the logger made of
+ * it, run with {@code ./gradlew :benchmark:screenStress}. Options: {@code --threads=N}, 8 by
+ * default, and {@code --rounds=N}, 10000 by default.
+ * <p>
+ * The screen times come from a clock only this check moves. Each round all threads enter a screen
+ * at the same time, the clock moves by the round's duration, then all threads pause at the same
+ * time: first all on one screen, then each on its own. Every round must log exactly one screen
+ * event per thread and exactly one screen_life event, with the round's duration and one of the
+ * entered screens. The whole run must start one session and fire its milestone once.
+ */
+public final class ScreenStress {
+
+    private static final String SHARED_SCREEN = "fm.castbox.ui.main.HomeFragment";
+    private static final String MILESTONE = "stress_session_1";
+
+    private ScreenStress() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int threadCount = 8;
+        int roundCount = 10000;
+        for (String arg : args) {
+            String value = arg.indexOf('=') > 0 ? arg.substring(arg.indexOf('=') + 1) : "";
+            if (arg.startsWith("--threads="))
+                threadCount = Integer.parseInt(value);
+            else if (arg.startsWith("--rounds="))
+                roundCount = Integer.parseInt(value);
+            else
+                throw new IllegalArgumentException("Unknown option " + arg);
+        }
+        final int threads = threadCount;
+        final int rounds = roundCount;
+
+        final ManualClock clock = new ManualClock();
+        final RecordingSink sink = new RecordingSink();
+        final EventLogger logger = EventLogger.getInstance()
+                .setClock(clock)
+                .enableSessions()
+                .setMilestones(Milestone.session(MILESTONE, 1))
+                .addEventSink(sink)
+                .init(new Application(), null);
+
+        final String[] ownScreens = new String[threads];
+        for (int t = 0; t < threads; t++) {
+            ownScreens[t] = "fm.castbox.ui.stress.Screen" + t + "Fragment";
+        }
+        // the workers enter, wait for the clock, then pause; this thread checks between rounds
+        final Gate gate = new Gate();
+        final Activity activity = new Activity();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int index = t;
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int round = 0; round < rounds; round++) {
+                        String screen = round % 2 == 0 ? SHARED_SCREEN : ownScreens[index];
+                        gate.await(2 * round + 1);
+                        logger.logScreen(activity, screen);
+                        gate.arrive();
+                        gate.await(2 * round + 2);
+                        logger.logScreenPause(screen);
+                        gate.arrive();
+                    }
+                }
+            }, "screen-" + t);
+            worker.start();
+            workers.add(worker);
+        }
+
+        int failures = 0;
+        long screens = 0;
+        long screenLifes = 0;
+        long totalMillis = 0;
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) {
+            long duration = 1 + round % 1000;
+            gate.open(2 * round + 1);
+            gate.awaitArrivals(threads * (2 * round + 1));
+            clock.advance(duration);
+            gate.open(2 * round + 2);
+            gate.awaitArrivals(threads * (2 * round + 2));
+
+            Set<String> entered = new HashSet<>();
+            if (round % 2 == 0) {
+                entered.add(SHARED_SCREEN);
+            } else {
+                for (String screen : ownScreens) {
+                    entered.add(screen);
+                }
+            }
+            int roundScreens = 0;
+            int roundLifes = 0;
+            Recorded event;
+            while ((event = sink.events.poll()) != null) {
+                if (event.type == Event.TYPE_SCREEN) {
+                    roundScreens++;
+                    if (!entered.contains(event.screen))
+                        failures += fail("round %d: screen event for %s", round, event.screen);
+                } else if (event.type == Event.TYPE_SCREEN_LIFE) {
+                    roundLifes++;
+                    if (!entered.contains(event.screen))
+                        failures += fail("round %d: screen_life for %s", round, event.screen);
+                    if (event.value != duration)
+                        failures += fail("round %d: screen_life of %d ms, expected %d", round, event.value, duration);
+                    totalMillis += event.value;
+                }
+            }
+            if (roundScreens != threads)
+                failures += fail("round %d: %d screen events, expected %d", round, roundScreens, threads);
+            if (roundLifes != 1)
+                failures += fail("round %d: %d screen_life events, expected 1", round, roundLifes);
+            screens += roundScreens;
+            screenLifes += roundLifes;
+        }
+        long elapsed = System.nanoTime() - start;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        // the session starts on the scheduler thread if the state was still being read
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (sink.milestones.get() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        logger.flush();
+        if (sink.sessionStarts.get() != 1)
+            failures += fail("%d session starts, expected 1", sink.sessionStarts.get());
+        if (sink.milestones.get() != 1)
+            failures += fail("%s logged %d times, expected once", MILESTONE, sink.milestones.get());
+
+        long expectedMillis = 0;
+        for (int round = 0; round < rounds; round++) {
+            expectedMillis += 1 + round % 1000;
+        }
+        if (totalMillis != expectedMillis)
+            failures += fail("screen_life total %d ms, expected %d", totalMillis, expectedMillis);
+
+        System.out.printf("%d threads, %d rounds in %.1f ms: %d screen, %d screen_life, %d ms screen time, %d failures%n",
+                threads, rounds, elapsed / 1e6, screens, screenLifes, totalMillis, failures);
+        System.exit(failures > 0 ? 1 : 0);
+    }
+
+    private static int fail(String format, Object... args) {
+        System.out.printf(format + "%n", args);
+        return 1;
+    }
+
+    /**
+     * Releases the workers into a step all at once: they spin on it instead of being woken one
+     * after the other, so their calls overlap as much as the cores allow.
+     */
+    private static final class Gate {
+        private final AtomicInteger arrived = new AtomicInteger();
+        private volatile int opened;
+
+        void open(int step) {
+            opened = step;
+        }
+
+        void await(int step) {
+            while (opened < step) {
+                Thread.yield();
+            }
+        }
+
+        void arrive() {
+            arrived.incrementAndGet();
+        }
+
+        void awaitArrivals(int count) {
+            while (arrived.get() < count) {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Clock which only moves when told to.
+     */
+    private static final class ManualClock implements Clock {
+        private final AtomicLong now = new AtomicLong(1000000L);
+
+        void advance(long millis) {
+            now.addAndGet(millis);
+        }
+
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return now.get();
+        }
+    }
+
+    private static final class Recorded {
+        final int type;
+        final String screen;
+        final long value;
+
+        Recorded(Event event) {
+            type = event.getType();
+            screen = event.getScreen();
+            value = event.getValue();
+        }
+    }
+
+    /**
+     * Records the screen events and counts the session and milestone events, on the logging threads.
+     */
+    private static final class RecordingSink extends AbstractEventSink {
+        final ConcurrentLinkedQueue<Recorded> events = new ConcurrentLinkedQueue<>();
+        final AtomicLong sessionStarts = new AtomicLong();
+        final AtomicLong milestones = new AtomicLong();
+
+        @NonNull
+        @Override
+        public String getName() {
+            return "recording";
+        }
+
+        @Override
+        public void logEvent(@NonNull Event event) {
+            if (event.getType() == Event.TYPE_SCREEN || event.getType() == Event.TYPE_SCREEN_LIFE)
+                events.add(new Recorded(event));
+            else if (SessionTracker.EVENT_NAME_SESSION_START.equals(event.getName()))
+                sessionStarts.incrementAndGet();
+            else if (MILESTONE.equals(event.getName()))
+                milestones.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+import android.app.Application;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Screen enter/pause from many threads at once, like the player service logging from a
+ * background thread while fragments change on the main thread. The events are checked by
+ * {@link ScreenStress}, this only measures the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Threads(8)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ScreenStressBenchmark {
+
+    private static final String[] SCREENS = {
+            "fm.castbox.ui.main.HomeFragment",
+            "fm.castbox.ui.play.EpisodeDetailFragment",
+            "fm.castbox.ui.search.SearchFragment",
+    };
+
+    private final Activity activity = new Activity();
+    private EventLogger logger;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        logger = EventLogger.getInstance();
+        logger.addEventSink(new StubSink("stub"));
+        logger.init(new Application(), null);
+    }
+
+    @Benchmark
+    public void enterAndLeave() {
+        String screen = SCREENS[(int) (Thread.currentThread().getId() % SCREENS.length)];
+        logger.logScreen(activity, screen);
+        logger.logAction("stress", "tap");
+        logger.logScreenPause(screen);
+    }
+}
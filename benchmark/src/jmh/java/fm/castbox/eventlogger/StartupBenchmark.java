@@ -0,0 +1,61 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+
+import com.facebook.appevents.AppEventsLogger;
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Constructor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time {@link EventLogger#init} blocks Application.onCreate with firebase and facebook enabled,
+ * per {@link InitPolicy}. The stub sdks sleep to emulate their setup cost.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+public class StartupBenchmark {
+
+    @Param({"IMMEDIATE", "BACKGROUND", "FIRST_USE", "FIRST_FRAME"})
+    public InitPolicy policy;
+
+    @Param({"20"})
+    public long sdkSetupMillis;
+
+    private EventLogger logger;
+
+    @Setup(Level.Invocation)
+    public void setUp() throws Exception {
+        FirebaseAnalytics.setupMillis = sdkSetupMillis;
+        AppEventsLogger.setupMillis = sdkSetupMillis;
+        // a fresh logger per cold start, the singleton is initialized once
+        Constructor<EventLogger> constructor = EventLogger.class.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        logger = constructor.newInstance();
+    }
+
+    @Benchmark
+    public EventLogger init() {
+        return logger.enableFirebaseAnalytics()
+                .enableFacebookAnalytics()
+                .setInitPolicy(policy)
+                .init(new Application(), null);
+    }
+}
@@ -0,0 +1,31 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stands in for the Firebase and Facebook sinks: builds a bundle like they do and counts events.
+ */
+public class StubSink extends AbstractEventSink {
+
+    private final String name;
+    final AtomicLong events = new AtomicLong();
+    final AtomicLong bundleSize = new AtomicLong();
+
+    public StubSink(@NonNull String name) {
+        this.name = name;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        bundleSize.addAndGet(event.toBundle().size());
+        events.incrementAndGet();
+    }
+}
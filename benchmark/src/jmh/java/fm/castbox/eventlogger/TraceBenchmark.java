@@ -0,0 +1,41 @@
+package fm.castbox.eventlogger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Debug output of a log call: formatting the message as the log methods did for a planted Timber
+ * tree, against recording the call in the trace ring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class TraceBenchmark {
+
+    private final EventTrace trace = new EventTrace(1024);
+    private long counter;
+
+    @Benchmark
+    public String format() {
+        return String.format(Locale.US, "Log event: event name=%s, category=%s, itemName=%s, value=%d, extendSession=%s.",
+                "play_progress", "player", "episode", ++counter, String.valueOf(false));
+    }
+
+    @Benchmark
+    public void record() {
+        trace.event("play_progress", "player", "episode", true, ++counter, false);
+    }
+}
@@ -0,0 +1,331 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a trace recorded by {@link TraceRecorderSink} back into the logger against stub sinks and
+ * reports throughput, call latency and allocation per event, run with
+ * <pre>
+ * ./gradlew :benchmark:replay -Pargs="--trace=session.trace --speed=10 --threads=4 --async --sinks=stub,slow:200"
+ * </pre>
+ * Options:
+ * <ul>
+ * <li>{@code --trace=file} trace to play, {@code --generate=count} writes a synthetic session of
+ * that many events to it first (to a temp file without {@code --trace}).</li>
+ * <li>{@code --speed=max|N} plays the trace N times faster than recorded, 1 is real time, max
+ * (default) without pauses.</li>
+ * <li>{@code --threads=N} plays the whole trace from N threads at once.</li>
+ * <li>{@code --loops=N} plays it N times in a row.</li>
+ * <li>{@code --async} enables async dispatching.</li>
+ * <li>{@code --sinks=...} comma separated sinks: {@code stub} builds a bundle like the Firebase and
+ * Facebook sinks, {@code batching} is a batching stub, {@code slow:micros} and
+ * {@code background:micros} spin for that long per call on the dispatcher or a thread of their own.</li>
+ * </ul>
+ * Allocation is read from the JVM per thread: the caller threads while they log, and the other
+ * threads (dispatcher, sink and scheduler threads) until the logger is idle again.
+ */
+public final class TraceReplay {
+
+    private static final String[] SCREENS = {
+            "fm.castbox.audio.radio.podcast.ui.main.MainActivity",
+            "fm.castbox.audio.radio.podcast.ui.discovery.DiscoveryFragment",
+            "fm.castbox.audio.radio.podcast.ui.personal.PersonalFragment",
+            "fm.castbox.audio.radio.podcast.ui.play.PlayerActivity",
+            "fm.castbox.audio.radio.podcast.ui.search.SearchActivity"
+    };
+    private static final String[] ACTIONS = {"play", "pause", "subscribe", "download", "share", "search"};
+
+    private TraceReplay() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String trace = null;
+        int generate = 0;
+        double speed = 0;
+        int threads = 1;
+        int loops = 1;
+        boolean async = false;
+        String sinks = "stub,stub";
+        for (String arg : args) {
+            String value = arg.indexOf('=') > 0 ? arg.substring(arg.indexOf('=') + 1) : "";
+            if (arg.startsWith("--trace="))
+                trace = value;
+            else if (arg.startsWith("--generate="))
+                generate = Integer.parseInt(value);
+            else if (arg.startsWith("--speed="))
+                speed = "max".equals(value) ? 0 : Double.parseDouble(value);
+            else if (arg.startsWith("--threads="))
+                threads = Integer.parseInt(value);
+            else if (arg.startsWith("--loops="))
+                loops = Integer.parseInt(value);
+            else if (arg.equals("--async"))
+                async = true;
+            else if (arg.startsWith("--sinks="))
+                sinks = value;
+            else
+                throw new IllegalArgumentException("Unknown option " + arg);
+        }
+        if (trace == null && generate == 0)
+            throw new IllegalArgumentException("Missing --trace or --generate");
+
+        File file;
+        if (trace != null) {
+            file = new File(trace);
+        } else {
+            file = File.createTempFile("eventlogger", ".trace");
+            file.deleteOnExit();
+        }
+        if (generate > 0)
+            generate(file, generate, 42L);
+
+        List<Long> times = new ArrayList<>();
+        List<byte[]> payloads = new ArrayList<>();
+        TraceReader reader = new TraceReader(file);
+        try {
+            while (reader.next()) {
+                times.add(reader.getTimeNanos());
+                payloads.add(reader.getPayload());
+            }
+        } finally {
+            reader.close();
+        }
+        System.out.printf("trace %s: %d events over %.1f s%n", file, times.size(),
+                times.isEmpty() ? 0.0 : times.get(times.size() - 1) / 1e9);
+
+        List<ReplaySink> replaySinks = new ArrayList<>();
+        String[] specs = sinks.split(",");
+        for (int i = 0; i < specs.length; i++) {
+            replaySinks.add(ReplaySink.parse(specs[i].trim() + "#" + i));
+        }
+        EventLogger logger = BenchmarkSupport.logger(async, replaySinks.toArray(new EventSink[0]));
+        replay(logger, times, payloads, speed, threads, loops);
+        for (ReplaySink sink : replaySinks) {
+            System.out.printf("sink %s: %d events%n", sink.getName(), sink.events.get());
+        }
+        System.exit(0);
+    }
+
+    private static void replay(final EventLogger logger, final List<Long> times, final List<byte[]> payloads,
+                               final double speed, int threads, final int loops) throws InterruptedException {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final AtomicLong callerBytes = new AtomicLong();
+        final CountDownLatch done = new CountDownLatch(threads);
+        final com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        final Activity activity = new Activity();
+
+        long[] otherThreads = bean.getAllThreadIds();
+        long otherBytesBefore = allocatedBytes(bean, otherThreads);
+        final long startNanos = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Event[] events = new Event[payloads.size()];
+                    for (int loop = 0; loop < loops; loop++) {
+                        // decode outside of the measured calls
+                        for (int i = 0; i < events.length; i++) {
+                            events[i] = TraceReader.decode(payloads.get(i));
+                        }
+                        long loopStart = System.nanoTime();
+                        long threadId = Thread.currentThread().getId();
+                        long bytes = bean.getThreadAllocatedBytes(threadId);
+                        for (int i = 0; i < events.length; i++) {
+                            if (speed > 0) {
+                                long wait = loopStart + (long) (times.get(i) / speed) - System.nanoTime();
+                                if (wait > 0)
+                                    LockSupport.parkNanos(wait);
+                            }
+                            long callStart = System.nanoTime();
+                            play(logger, activity, events[i]);
+                            latency.record(System.nanoTime() - callStart);
+                            events[i] = null;
+                        }
+                        callerBytes.addAndGet(bean.getThreadAllocatedBytes(threadId) - bytes);
+                    }
+                    done.countDown();
+                }
+            }, "replay-" + t);
+            thread.start();
+        }
+        done.await();
+        long callsNanos = System.nanoTime() - startNanos;
+        logger.awaitIdle(60 * 1000L);
+        logger.flush();
+        long totalNanos = System.nanoTime() - startNanos;
+        long otherBytes = allocatedBytes(bean, otherThreads) - otherBytesBefore;
+
+        long count = latency.getCount();
+        System.out.printf("%d calls from %d threads in %.1f ms, %.0f calls/s, idle after %.1f ms, %.0f events/s%n",
+                count, threads, callsNanos / 1e6, count * 1e9 / callsNanos, totalNanos / 1e6, count * 1e9 / totalNanos);
+        System.out.printf("call latency: p50 %d ns, p99 %d ns, max %d ns, mean %d ns%n",
+                latency.quantile(0.5), latency.quantile(0.99), latency.getMaxNanos(),
+                count == 0 ? 0 : latency.getTotalNanos() / count);
+        System.out.printf("allocated per event: %.1f bytes on the callers, %.1f bytes on other threads%n",
+                count == 0 ? 0.0 : (double) callerBytes.get() / count, count == 0 ? 0.0 : (double) otherBytes / count);
+        System.out.printf("dropped events: %d%n", logger.getDroppedEventCount());
+    }
+
+    /**
+     * Make the public API call which produced the recorded event.
+     */
+    private static void play(EventLogger logger, Activity activity, Event event) {
+        switch (event.getType()) {
+            case Event.TYPE_SCREEN:
+                logger.logScreen(activity, event.getScreen());
+                event.release();
+                break;
+            case Event.TYPE_USER_PROPERTY:
+                logger.setUserProperty(event.getName(), event.getItemName());
+                event.release();
+                break;
+            case Event.TYPE_USER_PROPERTIES:
+                for (int i = 0; i < event.getParamCount(); i++) {
+                    logger.setUserProperty(event.getParamKey(i), event.getString(i));
+                }
+                event.release();
+                break;
+            case Event.TYPE_USER_ID:
+                logger.setUserId(event.getItemName());
+                event.release();
+                break;
+            default:
+                logger.log(event);
+                break;
+        }
+    }
+
+    private static long allocatedBytes(com.sun.management.ThreadMXBean bean, long[] threadIds) {
+        long current = Thread.currentThread().getId();
+        long total = 0;
+        for (long id : threadIds) {
+            long bytes = id == current ? -1 : bean.getThreadAllocatedBytes(id);
+            if (bytes > 0)
+                total += bytes;
+        }
+        return total;
+    }
+
+    /**
+     * Write a synthetic session: screens, actions, playback progress with extras and now and then
+     * a user property or a purchase, about 20 events a second.
+     */
+    static void generate(@NonNull File file, int count, long seed) throws Exception {
+        Random random = new Random(seed);
+        TraceRecorderSink recorder = new TraceRecorderSink(file);
+        long time = 0;
+        String screen = SCREENS[0];
+        for (int i = 0; i < count; i++) {
+            time += (long) (-Math.log(1 - random.nextDouble()) * 50e6);
+            int kind = random.nextInt(100);
+            Event event;
+            if (kind < 10) {
+                screen = SCREENS[random.nextInt(SCREENS.length)];
+                event = Event.obtain(Event.TYPE_SCREEN, EventLogger.EVENT_NAME_SCREEN)
+                        .category("screen")
+                        .itemName(ScreenKey.of(screen).shortScreenName)
+                        .screen(screen);
+            } else if (kind < 15) {
+                event = Event.obtain(Event.TYPE_SCREEN_LIFE, EventLogger.EVENT_NAME_SCREEN)
+                        .category("screen_life")
+                        .itemName(ScreenKey.of(screen).lifeScreenName)
+                        .screen(screen)
+                        .value(1000 + random.nextInt(60000));
+            } else if (kind < 50) {
+                event = Event.obtain(EventLogger.EVENT_NAME_USER_ACTION)
+                        .category("player")
+                        .itemName(ACTIONS[random.nextInt(ACTIONS.length)]);
+            } else if (kind < 95) {
+                event = Event.obtain("play_progress")
+                        .category("player")
+                        .itemName("episode_" + random.nextInt(50))
+                        .value(random.nextInt(3600))
+                        .putLong("position", random.nextInt(3600 * 1000))
+                        .putDouble("speed", 1.0 + random.nextInt(4) * 0.25)
+                        .putString("source", random.nextBoolean() ? "stream" : "download");
+            } else if (kind < 99) {
+                event = Event.obtain(Event.TYPE_USER_PROPERTY, "theme").itemName(random.nextBoolean() ? "dark" : "light");
+            } else {
+                event = Event.obtain(Event.TYPE_PURCHASE, "ecommerce_purchase")
+                        .category("premium")
+                        .itemName("yearly");
+            }
+            recorder.record(event, time);
+            event.release();
+        }
+        recorder.close();
+    }
+
+    /**
+     * Stub backend picked on the command line.
+     */
+    private static final class ReplaySink extends AbstractEventSink {
+
+        private final String name;
+        private final int threadMode;
+        private final boolean batching;
+        private final long spinNanos;
+        final AtomicLong events = new AtomicLong();
+
+        private ReplaySink(String name, int threadMode, boolean batching, long spinNanos) {
+            this.name = name;
+            this.threadMode = threadMode;
+            this.batching = batching;
+            this.spinNanos = spinNanos;
+        }
+
+        static ReplaySink parse(String spec) {
+            String kind = spec.substring(0, spec.indexOf('#'));
+            String micros = kind.indexOf(':') > 0 ? kind.substring(kind.indexOf(':') + 1) : "0";
+            long spinNanos = TimeUnit.MICROSECONDS.toNanos(Long.parseLong(micros));
+            if (kind.equals("stub"))
+                return new ReplaySink(spec, THREAD_DISPATCHER, false, 0);
+            if (kind.equals("batching"))
+                return new ReplaySink(spec, THREAD_DISPATCHER, true, 0);
+            if (kind.startsWith("slow:"))
+                return new ReplaySink(spec, THREAD_DISPATCHER, false, spinNanos);
+            if (kind.startsWith("background:"))
+                return new ReplaySink(spec, THREAD_BACKGROUND, false, spinNanos);
+            throw new IllegalArgumentException("Unknown sink " + kind);
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public int getThreadMode() {
+            return threadMode;
+        }
+
+        @Override
+        public boolean isBatching() {
+            return batching;
+        }
+
+        @Override
+        public void logEvent(@NonNull Event event) {
+            event.toBundle();
+            if (spinNanos > 0) {
+                long end = System.nanoTime() + spinNanos;
+                while (System.nanoTime() < end) {
+                    // busy, like a backend doing work on the calling thread
+                }
+            }
+            events.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package android.app;
+
+import android.content.Context;
+import android.view.Window;
+
+public class Activity extends Context {
+
+    private final Window window = new Window();
+
+    public Window getWindow() {
+        return window;
+    }
+}
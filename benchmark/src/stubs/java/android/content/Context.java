@@ -0,0 +1,46 @@
+package android.content;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Stub context with in-memory preferences and a temporary files dir, or the dir of the
+ * eventlogger.filesDir system property.
+ */
+public class Context {
+
+    public static final int MODE_PRIVATE = 0;
+
+    private static final Map<String, SharedPreferences> preferences = new HashMap<>();
+    private static File filesDir;
+
+    public SharedPreferences getSharedPreferences(String name, int mode) {
+        synchronized (preferences) {
+            SharedPreferences result = preferences.get(name);
+            if (result == null) {
+                result = new SharedPreferences.InMemory();
+                preferences.put(name, result);
+            }
+            return result;
+        }
+    }
+
+    public synchronized File getFilesDir() {
+        if (filesDir == null) {
+            // shared by the processes of the multi-process benchmark
+            String shared = System.getProperty("eventlogger.filesDir");
+            filesDir = shared != null ? new File(shared) : new File(System.getProperty("java.io.tmpdir"), "eventlogger-" + System.nanoTime());
+            filesDir.mkdirs();
+        }
+        return filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public String getPackageName() {
+        return "fm.castbox.eventlogger.benchmark";
+    }
+}
@@ -0,0 +1,14 @@
+package android.content;
+
+import android.os.Bundle;
+
+public class Intent {
+
+    public Bundle getExtras() {
+        return null;
+    }
+
+    public String getAction() {
+        return null;
+    }
+}
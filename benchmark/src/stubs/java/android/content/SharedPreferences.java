@@ -0,0 +1,103 @@
+package android.content;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public interface SharedPreferences {
+
+    long getLong(String key, long defValue);
+
+    boolean getBoolean(String key, boolean defValue);
+
+    String getString(String key, String defValue);
+
+    Editor edit();
+
+    interface Editor {
+        Editor putLong(String key, long value);
+
+        Editor putBoolean(String key, boolean value);
+
+        Editor putString(String key, String value);
+
+        Editor remove(String key);
+
+        void apply();
+
+        boolean commit();
+    }
+
+    /**
+     * Thread safe in-memory preferences.
+     */
+    final class InMemory implements SharedPreferences {
+
+        private final Map<String, Object> values = new HashMap<>();
+
+        @Override
+        public synchronized long getLong(String key, long defValue) {
+            Object value = values.get(key);
+            return value instanceof Long ? (Long) value : defValue;
+        }
+
+        @Override
+        public synchronized boolean getBoolean(String key, boolean defValue) {
+            Object value = values.get(key);
+            return value instanceof Boolean ? (Boolean) value : defValue;
+        }
+
+        @Override
+        public synchronized String getString(String key, String defValue) {
+            Object value = values.get(key);
+            return value instanceof String ? (String) value : defValue;
+        }
+
+        @Override
+        public Editor edit() {
+            final Map<String, Object> changes = new HashMap<>();
+            return new Editor() {
+                @Override
+                public Editor putLong(String key, long value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putBoolean(String key, boolean value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor putString(String key, String value) {
+                    changes.put(key, value);
+                    return this;
+                }
+
+                @Override
+                public Editor remove(String key) {
+                    changes.put(key, null);
+                    return this;
+                }
+
+                @Override
+                public void apply() {
+                    commit();
+                }
+
+                @Override
+                public boolean commit() {
+                    synchronized (InMemory.this) {
+                        for (Map.Entry<String, Object> change : changes.entrySet()) {
+                            if (change.getValue() == null)
+                                values.remove(change.getKey());
+                            else
+                                values.put(change.getKey(), change.getValue());
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package android.os;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Stub bundle backed by a hash map, close to the ArrayMap of the platform for small sizes.
+ */
+public final class Bundle {
+
+    private final Map<String, Object> map;
+
+    public Bundle() {
+        map = new HashMap<>();
+    }
+
+    public Bundle(int capacity) {
+        map = new HashMap<>(Math.max(capacity, 1) * 2);
+    }
+
+    public Bundle(Bundle b) {
+        map = new HashMap<>(b.map);
+    }
+
+    public void putString(String key, String value) {
+        map.put(key, value);
+    }
+
+    public void putLong(String key, long value) {
+        map.put(key, value);
+    }
+
+    public void putInt(String key, int value) {
+        map.put(key, value);
+    }
+
+    public void putFloat(String key, float value) {
+        map.put(key, value);
+    }
+
+    public void putDouble(String key, double value) {
+        map.put(key, value);
+    }
+
+    public void putAll(Bundle bundle) {
+        map.putAll(bundle.map);
+    }
+
+    public Set<String> keySet() {
+        return map.keySet();
+    }
+
+    public Object get(String key) {
+        return map.get(key);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public void clear() {
+        map.clear();
+    }
+}
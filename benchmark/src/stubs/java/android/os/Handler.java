@@ -0,0 +1,37 @@
+package android.os;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stub handler running every callback on one shared daemon thread.
+ */
+public class Handler {
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "main-stub");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public Handler(Looper looper) {
+    }
+
+    public final boolean post(Runnable r) {
+        executor.execute(r);
+        return true;
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        executor.schedule(r, delayMillis, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+    }
+}
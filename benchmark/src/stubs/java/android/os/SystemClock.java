@@ -0,0 +1,12 @@
+package android.os;
+
+public final class SystemClock {
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1000000L;
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1000000L;
+    }
+}
@@ -0,0 +1,13 @@
+package android.view;
+
+import android.os.Handler;
+import android.os.Looper;
+
+public class View {
+
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    public boolean post(Runnable action) {
+        return handler.post(action);
+    }
+}
@@ -0,0 +1,16 @@
+package com.android.installreferrer.api;
+
+public class ReferrerDetails {
+
+    public String getInstallReferrer() {
+        return null;
+    }
+
+    public long getReferrerClickTimestampSeconds() {
+        return 0;
+    }
+
+    public long getInstallBeginTimestampSeconds() {
+        return 0;
+    }
+}
@@ -0,0 +1,8 @@
+package com.facebook;
+
+public class GraphRequest {
+
+    public interface Callback {
+        void onCompleted(GraphResponse response);
+    }
+}
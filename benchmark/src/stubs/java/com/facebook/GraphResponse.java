@@ -0,0 +1,4 @@
+package com.facebook;
+
+public class GraphResponse {
+}
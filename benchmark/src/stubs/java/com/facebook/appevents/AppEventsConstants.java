@@ -0,0 +1,6 @@
+package com.facebook.appevents;
+
+public class AppEventsConstants {
+    public static final String EVENT_PARAM_CONTENT_TYPE = "fb_content_type";
+    public static final String EVENT_PARAM_CONTENT_ID = "fb_content_id";
+}
@@ -0,0 +1,43 @@
+package com.facebook.appevents;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Bundle;
+
+import com.facebook.GraphRequest;
+
+public class AppEventsLogger {
+
+    /**
+     * Time activateApp takes, to emulate the sdk setup in startup benchmarks.
+     */
+    public static volatile long setupMillis = 0L;
+
+    public static void activateApp(Application application) {
+        if (setupMillis > 0) {
+            try {
+                Thread.sleep(setupMillis);
+            } catch (InterruptedException ignored) {
+            }
+        }
+    }
+
+    public static AppEventsLogger newLogger(Context context) {
+        return new AppEventsLogger();
+    }
+
+    public static void updateUserProperties(Bundle parameters, GraphRequest.Callback callback) {
+    }
+
+    public static void setUserID(String userID) {
+    }
+
+    public void logEvent(String eventName, Bundle parameters) {
+    }
+
+    public void logEvent(String eventName, double valueToSum, Bundle parameters) {
+    }
+
+    public void flush() {
+    }
+}
@@ -0,0 +1,49 @@
+package com.google.firebase.analytics;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+
+public final class FirebaseAnalytics {
+
+    /**
+     * Time getInstance takes, to emulate the sdk setup in startup benchmarks.
+     */
+    public static volatile long setupMillis = 0L;
+
+    public static FirebaseAnalytics getInstance(Context context) {
+        if (setupMillis > 0) {
+            try {
+                Thread.sleep(setupMillis);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        return new FirebaseAnalytics();
+    }
+
+    public void setAnalyticsCollectionEnabled(boolean enabled) {
+    }
+
+    public void logEvent(String name, Bundle params) {
+    }
+
+    public void setUserProperty(String name, String value) {
+    }
+
+    public void setUserId(String id) {
+    }
+
+    public void setCurrentScreen(Activity activity, String screenName, String screenClassOverride) {
+    }
+
+    public static class Param {
+        public static final String ITEM_NAME = "item_name";
+        public static final String ITEM_ID = "item_id";
+        public static final String ITEM_CATEGORY = "item_category";
+        public static final String VALUE = "value";
+    }
+
+    public static class Event {
+        public static final String ECOMMERCE_PURCHASE = "ecommerce_purchase";
+    }
+}
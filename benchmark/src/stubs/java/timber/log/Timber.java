@@ -0,0 +1,23 @@
+package timber.log;
+
+/**
+ * Stub with no tree planted.
+ */
+public final class Timber {
+
+    public static void d(String message, Object... args) {
+    }
+
+    public static void w(String message, Object... args) {
+    }
+
+    public static void w(Throwable t, String message, Object... args) {
+    }
+
+    public static void e(Throwable t, String message, Object... args) {
+    }
+
+    public static int treeCount() {
+        return 0;
+    }
+}
@@ -0,0 +1,58 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * {@link EventSink} running on the dispatcher thread without batching, with no-op user property,
+ * user id and screen callbacks. Several user properties are set one by one.
+ */
+public abstract class AbstractEventSink implements EventSink {
+
+    @Override
+    public int getThreadMode() {
+        return THREAD_DISPATCHER;
+    }
+
+    @Override
+    public boolean isBatching() {
+        return false;
+    }
+
+    @NonNull
+    @Override
+    public BatchPolicy getBatchPolicy() {
+        return BatchPolicy.DEFAULT;
+    }
+
+    @Override
+    public void logEvents(@NonNull List<Event> events) {
+        for (int i = 0; i < events.size(); i++) {
+            logEvent(events.get(i));
+        }
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String key, @Nullable String value) {
+    }
+
+    @Override
+    public void setUserProperties(@NonNull Map<String, String> properties) {
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            setUserProperty(property.getKey(), property.getValue());
+        }
+    }
+
+    @Override
+    public void setUserId(@Nullable String userId) {
+    }
+
+    @Override
+    public void setCurrentScreen(@NonNull Activity activity, @NonNull String screenName) {
+    }
+}
@@ -0,0 +1,34 @@
+package fm.castbox.eventlogger;
+
+/**
+ * When a batching {@link EventSink} receives its pending events.
+ */
+public final class BatchPolicy {
+
+    /**
+     * 50 events, or 30 seconds after the first pending event.
+     */
+    public static final BatchPolicy DEFAULT = new BatchPolicy(50, 30 * 1000L);
+
+    private final int maxBatchSize;
+    private final long maxAgeMillis;
+
+    /**
+     * @param maxBatchSize flush as soon as this many events are pending.
+     * @param maxAgeMillis flush when the oldest pending event is this old.
+     */
+    public BatchPolicy(int maxBatchSize, long maxAgeMillis) {
+        if (maxBatchSize <= 0)
+            throw new IllegalArgumentException("maxBatchSize must be positive");
+        this.maxBatchSize = maxBatchSize;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+}
@@ -0,0 +1,65 @@
+package fm.castbox.eventlogger;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of the batches delivered to a sink.
+ */
+public final class BatchStats {
+
+    private final long batches;
+    private final long events;
+    private final long dropped;
+    private final long totalFlushNanos;
+    private final long maxFlushNanos;
+
+    BatchStats(long batches, long events, long dropped, long totalFlushNanos, long maxFlushNanos) {
+        this.batches = batches;
+        this.events = events;
+        this.dropped = dropped;
+        this.totalFlushNanos = totalFlushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+    }
+
+    /**
+     * @return number of batches handed to the sink.
+     */
+    public long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * @return number of events handed to the sink.
+     */
+    public long getEventCount() {
+        return events;
+    }
+
+    /**
+     * @return number of events in batches the sink failed to handle or its thread had no room for.
+     */
+    public long getDroppedCount() {
+        return dropped;
+    }
+
+    public double getAverageBatchSize() {
+        return batches == 0 ? 0 : (double) events / batches;
+    }
+
+    /**
+     * @return average time spent in {@link EventSink#logEvents(java.util.List)}.
+     */
+    public long getAverageFlushNanos() {
+        return batches == 0 ? 0 : totalFlushNanos / batches;
+    }
+
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "BatchStats{batches=%d, events=%d, dropped=%d, avgSize=%.1f, avgFlush=%dus, maxFlush=%dus}",
+                batches, events, dropped, getAverageBatchSize(), getAverageFlushNanos() / 1000, maxFlushNanos / 1000);
+    }
+}
@@ -0,0 +1,105 @@
+package fm.castbox.eventlogger;
+
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Constant parameters of the event shapes a sink logs, i.e. the category of screen events or the
+ * extend_session flag, built once and copied into the bundle of every event of the same shape so
+ * the sink only puts the variable parameters.
+ * <p>
+ * A shape is the type, name, category and extend session flag of an event, the constants must
+ * only depend on them. Shapes are cached in a small direct mapped table, a shape evicted by
+ * another one is built again when it comes back.
+ */
+final class BundleTemplates {
+
+    interface Builder {
+        /**
+         * Put the constant parameters of the event shape.
+         */
+        void putConstants(@NonNull Event event, @NonNull Bundle constants);
+    }
+
+    static final int SIZE = 64;
+
+    private final Builder builder;
+    private final AtomicReferenceArray<Template> templates = new AtomicReferenceArray<>(SIZE);
+
+    BundleTemplates(@NonNull Builder builder) {
+        this.builder = builder;
+    }
+
+    /**
+     * @param withParams true to add the event parameters, constants win over event parameters of
+     *                   the same key.
+     * @return a new bundle with the constant parameters of the event shape.
+     */
+    @NonNull
+    Bundle newBundle(@NonNull Event event, boolean withParams) {
+        Template template = get(event);
+        Bundle bundle = new Bundle(template.constants);
+        if (withParams && event.getParamCount() > 0) {
+            event.putParams(bundle);
+            for (String key : template.keys) {
+                if (event.indexOf(key) >= 0) {
+                    bundle.putAll(template.constants);
+                    break;
+                }
+            }
+        }
+        return bundle;
+    }
+
+    @NonNull
+    private Template get(@NonNull Event event) {
+        int type = event.getType();
+        String name = event.getName();
+        String category = event.getCategory();
+        boolean extendSession = event.isExtendSession();
+        int hash = (type * 31 + hashCode(name)) * 31 + hashCode(category);
+        int slot = (hash ^ (hash >>> 16) ^ (extendSession ? 1 : 0)) & (SIZE - 1);
+        Template template = templates.get(slot);
+        if (template != null && template.matches(type, name, category, extendSession))
+            return template;
+
+        Bundle constants = new Bundle();
+        builder.putConstants(event, constants);
+        template = new Template(type, name, category, extendSession, constants);
+        templates.set(slot, template);
+        return template;
+    }
+
+    private static int hashCode(@Nullable String s) {
+        return s == null ? 0 : s.hashCode();
+    }
+
+    private static final class Template {
+        final int type;
+        final String name;
+        final String category;
+        final boolean extendSession;
+        // read only once published
+        final Bundle constants;
+        final String[] keys;
+
+        Template(int type, String name, String category, boolean extendSession, Bundle constants) {
+            this.type = type;
+            this.name = name;
+            this.category = category;
+            this.extendSession = extendSession;
+            this.constants = constants;
+            this.keys = constants.keySet().toArray(new String[0]);
+        }
+
+        boolean matches(int type, String name, String category, boolean extendSession) {
+            return this.type == type && this.extendSession == extendSession
+                    && TextUtils.equals(this.name, name) && TextUtils.equals(this.category, category);
+        }
+    }
+}
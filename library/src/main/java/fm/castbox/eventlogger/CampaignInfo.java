@@ -0,0 +1,247 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Campaign parameters of an install referrer or campaign url.
+ * <p>
+ * {@link #parse(String)} walks the query once by index. Only the values of the keys below are
+ * extracted, and percent escapes are decoded only for those values.
+ */
+public final class CampaignInfo {
+
+    public static final String KEY_UTM_SOURCE = "utm_source";
+    public static final String KEY_UTM_MEDIUM = "utm_medium";
+    public static final String KEY_UTM_CAMPAIGN = "utm_campaign";
+    public static final String KEY_UTM_TERM = "utm_term";
+    public static final String KEY_UTM_CONTENT = "utm_content";
+    public static final String KEY_KEYWORD = "keyword";
+    public static final String KEY_CAMPAIGN_ID = "campaignid";
+    public static final String KEY_GCLID = "gclid";
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    // order matches the fields index
+    private static final String[] KEYS = {
+            KEY_UTM_SOURCE, KEY_UTM_MEDIUM, KEY_UTM_CAMPAIGN, KEY_UTM_TERM, KEY_UTM_CONTENT,
+            KEY_KEYWORD, KEY_CAMPAIGN_ID, KEY_GCLID
+    };
+
+    private final String[] values = new String[KEYS.length];
+
+    private CampaignInfo() {
+    }
+
+    /**
+     * Parse a referrer, either a bare query string ({@code utm_source=a&utm_medium=b}), a query
+     * string url-encoded as a whole, or a http(s) url.
+     */
+    @NonNull
+    public static CampaignInfo parse(@NonNull String referrer) {
+        CampaignInfo info = new CampaignInfo();
+        int start = 0;
+        int end = referrer.length();
+        if (referrer.startsWith("http://") || referrer.startsWith("https://")) {
+            int question = referrer.indexOf('?');
+            if (question < 0)
+                return info;
+            start = question + 1;
+            int next = referrer.indexOf('?', start);
+            if (next >= 0)
+                end = next;
+        }
+
+        // the whole query is url-encoded, i.e. utm_source%3Dgoogle%26utm_medium%3Dcpc
+        int equals = referrer.indexOf('=', start);
+        int percent = referrer.indexOf('%', start);
+        if ((equals < 0 || equals >= end) && percent >= 0 && percent < end) {
+            String decoded = decode(referrer, start, end);
+            info.parseQuery(decoded, 0, decoded.length());
+        } else {
+            info.parseQuery(referrer, start, end);
+        }
+        return info;
+    }
+
+    /**
+     * Build from already decoded query parameters.
+     */
+    @NonNull
+    public static CampaignInfo of(@NonNull Map<String, String> queries) {
+        CampaignInfo info = new CampaignInfo();
+        for (int i = 0; i < KEYS.length; i++) {
+            info.values[i] = queries.get(KEYS[i]);
+        }
+        return info;
+    }
+
+    private void parseQuery(String query, int start, int end) {
+        int pairStart = start;
+        while (pairStart < end) {
+            int pairEnd = query.indexOf('&', pairStart);
+            if (pairEnd < 0 || pairEnd > end)
+                pairEnd = end;
+            int equals = query.indexOf('=', pairStart);
+            if (equals < 0 || equals > pairEnd)
+                equals = pairEnd;
+
+            int index = keyIndex(query, pairStart, equals);
+            if (index >= 0) {
+                int valueStart = Math.min(equals + 1, pairEnd);
+                // a second '=' ends the value, like splitting the pair on '='
+                int valueEnd = query.indexOf('=', valueStart);
+                if (valueEnd < 0 || valueEnd > pairEnd)
+                    valueEnd = pairEnd;
+                values[index] = decode(query, valueStart, valueEnd);
+            }
+            pairStart = pairEnd + 1;
+        }
+    }
+
+    private static int keyIndex(String query, int start, int end) {
+        final int length = end - start;
+        for (int i = 0; i < KEYS.length; i++) {
+            String key = KEYS[i];
+            if (key.length() == length && query.regionMatches(start, key, 0, length))
+                return i;
+        }
+        // encoded key, rare
+        for (int i = start; i < end; i++) {
+            char c = query.charAt(i);
+            if (c == '%' || c == '+') {
+                String decoded = decode(query, start, end);
+                for (int k = 0; k < KEYS.length; k++) {
+                    if (KEYS[k].equals(decoded))
+                        return k;
+                }
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Decode {@code application/x-www-form-urlencoded} text, malformed escapes are kept as is.
+     */
+    @NonNull
+    static String decode(@NonNull String s, int start, int end) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '%' || c == '+')
+                break;
+            i++;
+        }
+        if (i == end)
+            return s.substring(start, end);
+
+        StringBuilder sb = new StringBuilder(end - start);
+        sb.append(s, start, i);
+        byte[] bytes = null;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '+') {
+                sb.append(' ');
+                i++;
+            } else if (c == '%' && hex(s, i + 1, end) >= 0) {
+                // a run of escapes is one UTF-8 sequence
+                if (bytes == null)
+                    bytes = new byte[(end - i) / 3];
+                int count = 0;
+                while (i < end && s.charAt(i) == '%') {
+                    int b = hex(s, i + 1, end);
+                    if (b < 0)
+                        break;
+                    bytes[count++] = (byte) b;
+                    i += 3;
+                }
+                sb.append(new String(bytes, 0, count, UTF_8));
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the byte value of two hex digits at the index, -1 if malformed.
+     */
+    private static int hex(String s, int index, int end) {
+        if (index + 1 >= end)
+            return -1;
+        int high = Character.digit(s.charAt(index), 16);
+        int low = Character.digit(s.charAt(index + 1), 16);
+        if (high < 0 || low < 0)
+            return -1;
+        return (high << 4) | low;
+    }
+
+    @Nullable
+    public String getUtmSource() {
+        return values[0];
+    }
+
+    @Nullable
+    public String getUtmMedium() {
+        return values[1];
+    }
+
+    @Nullable
+    public String getUtmCampaign() {
+        return values[2];
+    }
+
+    @Nullable
+    public String getUtmTerm() {
+        return values[3];
+    }
+
+    @Nullable
+    public String getUtmContent() {
+        return values[4];
+    }
+
+    @Nullable
+    public String getKeyword() {
+        return values[5];
+    }
+
+    @Nullable
+    public String getCampaignId() {
+        return values[6];
+    }
+
+    @Nullable
+    public String getGclid() {
+        return values[7];
+    }
+
+    /**
+     * @return value of one of the KEY_ constants, null if absent.
+     */
+    @Nullable
+    public String get(@NonNull String key) {
+        for (int i = 0; i < KEYS.length; i++) {
+            if (KEYS[i].equals(key))
+                return values[i];
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("CampaignInfo{");
+        for (int i = 0; i < KEYS.length; i++) {
+            if (values[i] != null)
+                sb.append(KEYS[i]).append('=').append(values[i]).append(", ");
+        }
+        if (sb.charAt(sb.length() - 1) == ' ')
+            sb.setLength(sb.length() - 2);
+        return sb.append('}').toString();
+    }
+}
@@ -0,0 +1,28 @@
+package fm.castbox.eventlogger;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the current time, replaced in tests.
+ */
+interface Clock {
+
+    Clock SYSTEM = new Clock() {
+        @Override
+        public long currentTimeMillis() {
+            return System.currentTimeMillis();
+        }
+
+        @Override
+        public long elapsedRealtime() {
+            return SystemClock.elapsedRealtime();
+        }
+    };
+
+    long currentTimeMillis();
+
+    /**
+     * @return milliseconds since boot including deep sleep, never affected by changes of the wall clock.
+     */
+    long elapsedRealtime();
+}
@@ -0,0 +1,481 @@
+package fm.castbox.eventlogger;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import timber.log.Timber;
+
+/**
+ * A single log call, normalized once and handed to every backend.
+ * <p>
+ * Events are pooled: get one with {@link #obtain(String)}, fill it with the builder methods and
+ * pass it to {@link EventLogger#log(Event)}. Parameters are kept in primitive slots so numeric
+ * values are never boxed. Once logged the event belongs to the logger, it is recycled after
+ * every backend is done with it and must not be touched by the caller anymore.
+ * <p>
+ * Backends which keep an event after {@link EventSink#logEvent(Event)} returns must
+ * {@link #retain()} it and {@link #release()} it when done.
+ */
+public final class Event {
+
+    public static final int TYPE_EVENT = 0;
+    public static final int TYPE_SCREEN = 1;
+    public static final int TYPE_SCREEN_LIFE = 2;
+    public static final int TYPE_PURCHASE = 3;
+    public static final int TYPE_USER_PROPERTY = 4;
+    public static final int TYPE_USER_ID = 5;
+    /**
+     * several user properties at once, as string parameters.
+     */
+    public static final int TYPE_USER_PROPERTIES = 6;
+
+    public static final int PARAM_STRING = 0;
+    public static final int PARAM_LONG = 1;
+    public static final int PARAM_INT = 2;
+    public static final int PARAM_DOUBLE = 3;
+    public static final int PARAM_FLOAT = 4;
+
+    private static final int MAX_POOL_SIZE = 64;
+    private static final Object sPoolSync = new Object();
+    private static Event sPool;
+    private static int sPoolSize = 0;
+
+    private Event next;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    private int type;
+    private String name;
+    private String category;
+    private String itemName;
+    private String screen;
+    private long value;
+    private boolean hasValue;
+    private boolean extendSession;
+    // session stamp, sequence number 0 if not stamped
+    private long sessionId;
+    private long sessionSeq;
+    // sequence number in the journal, 0 if not journaled
+    long journalSeq;
+    // journal told when the last reference is released, that is once every backend is done
+    EventJournal journal;
+    // store told when the last reference is released, set once every backend accepted the user properties
+    UserPropertyStore propertyStore;
+
+    // parameter slots, kept across recycling
+    private int paramCount;
+    private String[] keys = new String[4];
+    private byte[] kinds = new byte[4];
+    private long[] longs = new long[4];
+    private double[] doubles = new double[4];
+    private String[] strings = new String[4];
+
+    private Event() {
+    }
+
+    /**
+     * Get an event from the pool.
+     *
+     * @param name event name.
+     */
+    @NonNull
+    public static Event obtain(@NonNull String name) {
+        return obtain(TYPE_EVENT, name);
+    }
+
+    @NonNull
+    static Event obtain(int type, @Nullable String name) {
+        Event event = null;
+        synchronized (sPoolSync) {
+            if (sPool != null) {
+                event = sPool;
+                sPool = event.next;
+                event.next = null;
+                sPoolSize--;
+            }
+        }
+        if (event == null)
+            event = new Event();
+        event.type = type;
+        event.name = name;
+        event.refCount.set(1);
+        return event;
+    }
+
+    /**
+     * Keep the event alive after the call it was handed to returns.
+     */
+    public Event retain() {
+        refCount.incrementAndGet();
+        return this;
+    }
+
+    /**
+     * Drop a reference, the event goes back to the pool when the last one is released. Releasing
+     * an event which is already back in the pool is ignored, unless it was obtained again since.
+     */
+    public void release() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                Timber.w(new IllegalStateException("Event released more often than retained"),
+                        "Ignore release of a recycled event");
+                return;
+            }
+            if (refCount.compareAndSet(count, count - 1)) {
+                if (count == 1)
+                    recycle();
+                return;
+            }
+        }
+    }
+
+    private void recycle() {
+        if (journal != null && journalSeq > 0L)
+            journal.ack(journalSeq);
+        journal = null;
+        if (propertyStore != null)
+            propertyStore.delivered(this);
+        propertyStore = null;
+        type = TYPE_EVENT;
+        name = null;
+        category = null;
+        itemName = null;
+        screen = null;
+        value = 0L;
+        hasValue = false;
+        extendSession = false;
+        sessionId = 0L;
+        sessionSeq = 0L;
+        journalSeq = 0L;
+        Arrays.fill(keys, 0, paramCount, null);
+        Arrays.fill(strings, 0, paramCount, null);
+        paramCount = 0;
+
+        synchronized (sPoolSync) {
+            if (sPoolSize < MAX_POOL_SIZE) {
+                next = sPool;
+                sPool = this;
+                sPoolSize++;
+            }
+        }
+    }
+
+    public Event category(@Nullable String category) {
+        this.category = category;
+        return this;
+    }
+
+    public Event itemName(@Nullable String itemName) {
+        this.itemName = itemName;
+        return this;
+    }
+
+    public Event value(long value) {
+        this.value = value;
+        this.hasValue = true;
+        return this;
+    }
+
+    Event screen(@Nullable String screen) {
+        this.screen = screen;
+        return this;
+    }
+
+    Event extendSession(boolean extendSession) {
+        this.extendSession = extendSession;
+        return this;
+    }
+
+    Event session(long sessionId, long sessionSeq) {
+        this.sessionId = sessionId;
+        this.sessionSeq = sessionSeq;
+        return this;
+    }
+
+    public Event putString(@NonNull String key, @Nullable String value) {
+        int i = slot(key, PARAM_STRING);
+        strings[i] = value;
+        return this;
+    }
+
+    public Event putLong(@NonNull String key, long value) {
+        int i = slot(key, PARAM_LONG);
+        longs[i] = value;
+        return this;
+    }
+
+    public Event putInt(@NonNull String key, int value) {
+        int i = slot(key, PARAM_INT);
+        longs[i] = value;
+        return this;
+    }
+
+    public Event putDouble(@NonNull String key, double value) {
+        int i = slot(key, PARAM_DOUBLE);
+        doubles[i] = value;
+        return this;
+    }
+
+    public Event putFloat(@NonNull String key, float value) {
+        int i = slot(key, PARAM_FLOAT);
+        doubles[i] = value;
+        return this;
+    }
+
+    /**
+     * Copy boxed parameters of type String, Long, Integer, Float or Double; any other value is
+     * ignored, as the backends always did.
+     */
+    public Event putAll(@Nullable Map<String, Object> extra) {
+        if (extra == null)
+            return this;
+        for (Map.Entry<String, Object> entry : extra.entrySet()) {
+            String k = entry.getKey();
+            Object v = entry.getValue();
+            if (v instanceof String)
+                putString(k, (String)v);
+            else if (v instanceof Long)
+                putLong(k, (Long)v);
+            else if (v instanceof Integer)
+                putInt(k, (Integer)v);
+            else if (v instanceof Float)
+                putFloat(k, (Float)v);
+            else if (v instanceof Double)
+                putDouble(k, (Double)v);
+            else
+                Timber.d("Ignore event property %s", k);
+        }
+        return this;
+    }
+
+    private int slot(String key, int kind) {
+        int i = indexOf(key);
+        if (i < 0) {
+            if (paramCount == keys.length) {
+                int capacity = paramCount * 2;
+                keys = Arrays.copyOf(keys, capacity);
+                kinds = Arrays.copyOf(kinds, capacity);
+                longs = Arrays.copyOf(longs, capacity);
+                doubles = Arrays.copyOf(doubles, capacity);
+                strings = Arrays.copyOf(strings, capacity);
+            }
+            i = paramCount++;
+            keys[i] = key;
+        }
+        kinds[i] = (byte) kind;
+        strings[i] = null;
+        return i;
+    }
+
+    /**
+     * Replace the value of a parameter, possibly with another type.
+     *
+     * @param kind one of the PARAM_ constants, the value is taken from the matching argument.
+     */
+    void setParam(int index, int kind, long longValue, double doubleValue, @Nullable String stringValue) {
+        kinds[index] = (byte) kind;
+        longs[index] = longValue;
+        doubles[index] = doubleValue;
+        strings[index] = kind == PARAM_STRING ? stringValue : null;
+    }
+
+    /**
+     * Remove a parameter, the following ones move down by one.
+     */
+    void removeParam(int index) {
+        int moved = paramCount - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(kinds, index + 1, kinds, index, moved);
+        System.arraycopy(longs, index + 1, longs, index, moved);
+        System.arraycopy(doubles, index + 1, doubles, index, moved);
+        System.arraycopy(strings, index + 1, strings, index, moved);
+        paramCount--;
+        keys[paramCount] = null;
+        strings[paramCount] = null;
+    }
+
+    /**
+     * @return index of the parameter, -1 if absent.
+     */
+    public int indexOf(@NonNull String key) {
+        for (int i = 0; i < paramCount; i++) {
+            if (key.equals(keys[i]))
+                return i;
+        }
+        return -1;
+    }
+
+    public int getType() {
+        return type;
+    }
+
+    /**
+     * @return event name, or the property key for {@link #TYPE_USER_PROPERTY}.
+     */
+    @Nullable
+    public String getName() {
+        return name;
+    }
+
+    @Nullable
+    public String getCategory() {
+        return category;
+    }
+
+    /**
+     * @return item name; the short screen name for screen events, the property value for
+     * {@link #TYPE_USER_PROPERTY} and the user id for {@link #TYPE_USER_ID}.
+     */
+    @Nullable
+    public String getItemName() {
+        return itemName;
+    }
+
+    /**
+     * @return the full screen name for screen events, otherwise the short name of the current screen.
+     */
+    @Nullable
+    public String getScreen() {
+        return screen;
+    }
+
+    public long getValue() {
+        return value;
+    }
+
+    public boolean hasValue() {
+        return hasValue;
+    }
+
+    public boolean isExtendSession() {
+        return extendSession;
+    }
+
+    /**
+     * @return id of the session the event was logged in, the session start time in milliseconds.
+     */
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    /**
+     * @return position of the event in its session starting at 1, 0 if sessions are not enabled.
+     */
+    public long getSessionSeq() {
+        return sessionSeq;
+    }
+
+    public int getParamCount() {
+        return paramCount;
+    }
+
+    @NonNull
+    public String getParamKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return one of the PARAM_ constants.
+     */
+    public int getParamType(int index) {
+        return kinds[index];
+    }
+
+    /**
+     * @return value of a {@link #PARAM_LONG} or {@link #PARAM_INT} parameter.
+     */
+    public long getLong(int index) {
+        return longs[index];
+    }
+
+    /**
+     * @return value of a {@link #PARAM_DOUBLE} or {@link #PARAM_FLOAT} parameter.
+     */
+    public double getDouble(int index) {
+        return doubles[index];
+    }
+
+    /**
+     * @return value of a {@link #PARAM_STRING} parameter.
+     */
+    @Nullable
+    public String getString(int index) {
+        return strings[index];
+    }
+
+    /**
+     * @return 64 bit hash of the type, name, category, item name, screen, value and parameters,
+     * independent of the parameter order.
+     */
+    long fingerprint() {
+        long h = type;
+        h = h * 0x9e3779b97f4a7c15L + hash(name);
+        h = h * 0x9e3779b97f4a7c15L + hash(category);
+        h = h * 0x9e3779b97f4a7c15L + hash(itemName);
+        h = h * 0x9e3779b97f4a7c15L + hash(screen);
+        h = h * 0x9e3779b97f4a7c15L + (hasValue ? value : 0x5bd1e995L);
+        long params = 0;
+        for (int i = 0; i < paramCount; i++) {
+            long p = hash(keys[i]) * 31 + kinds[i];
+            switch (kinds[i]) {
+                case PARAM_STRING:
+                    p = p * 0x9e3779b97f4a7c15L + hash(strings[i]);
+                    break;
+                case PARAM_DOUBLE:
+                case PARAM_FLOAT:
+                    p = p * 0x9e3779b97f4a7c15L + Double.doubleToLongBits(doubles[i]);
+                    break;
+                default:
+                    p = p * 0x9e3779b97f4a7c15L + longs[i];
+                    break;
+            }
+            params += EventGovernor.mix(p);
+        }
+        return EventGovernor.mix(h * 0x9e3779b97f4a7c15L + params);
+    }
+
+    private static long hash(@Nullable String s) {
+        return s == null ? 0x27d4eb2fL : s.hashCode();
+    }
+
+    /**
+     * @return a new bundle holding the parameters.
+     */
+    @NonNull
+    public Bundle toBundle() {
+        Bundle parameters = new Bundle(paramCount + 4);
+        putParams(parameters);
+        return parameters;
+    }
+
+    /**
+     * Put the parameters into a bundle.
+     */
+    void putParams(@NonNull Bundle parameters) {
+        for (int i = 0; i < paramCount; i++) {
+            switch (kinds[i]) {
+                case PARAM_STRING:
+                    parameters.putString(keys[i], strings[i]);
+                    break;
+                case PARAM_LONG:
+                    parameters.putLong(keys[i], longs[i]);
+                    break;
+                case PARAM_INT:
+                    parameters.putInt(keys[i], (int) longs[i]);
+                    break;
+                case PARAM_DOUBLE:
+                    parameters.putDouble(keys[i], doubles[i]);
+                    break;
+                case PARAM_FLOAT:
+                    parameters.putFloat(keys[i], (float) doubles[i]);
+                    break;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Folds the values of selected events into one summary per (name, category, item name): count,
+ * sum, min, max and quantiles. Summaries are emitted as one event each, an interval after the
+ * first folded value, and explicitly on flush and when the app goes to the background.
+ * <p>
+ * Keys are 64 bit hashes in an open addressing table with the counters in parallel primitive
+ * arrays, so folding a value does not allocate.
+ */
+final class EventAggregator {
+
+    interface Output {
+        /**
+         * Log a summary event, takes over the reference to the event.
+         */
+        void emit(@NonNull Event event);
+    }
+
+    static final String PARAM_COUNT = "count";
+    static final String PARAM_SUM = "sum";
+    static final String PARAM_MIN = "min";
+    static final String PARAM_MAX = "max";
+    static final String PARAM_P50 = "p50";
+    static final String PARAM_P90 = "p90";
+    static final String PARAM_P99 = "p99";
+
+    // distinct keys per interval, values of further keys are logged as they are
+    static final int MAX_KEYS = 256;
+
+    private final Set<String> eventNames;
+    private final long intervalMillis;
+    private final Output output;
+
+    private final long[] hashes = new long[MAX_KEYS * 2];
+    private final int[] slots = new int[MAX_KEYS * 2];
+    private final String[] names = new String[MAX_KEYS];
+    private final String[] categories = new String[MAX_KEYS];
+    private final String[] items = new String[MAX_KEYS];
+    private final long[] counts = new long[MAX_KEYS];
+    private final long[] sums = new long[MAX_KEYS];
+    private final long[] mins = new long[MAX_KEYS];
+    private final long[] maxs = new long[MAX_KEYS];
+    private final QuantileSketch[] sketches = new QuantileSketch[MAX_KEYS];
+    private int size;
+    private ScheduledFuture<?> trigger;
+
+    private final Runnable intervalFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    EventAggregator(@NonNull Set<String> eventNames, long intervalMillis, @NonNull Output output) {
+        this.eventNames = new HashSet<>(eventNames);
+        this.intervalMillis = intervalMillis;
+        this.output = output;
+    }
+
+    /**
+     * @return true if the event value was folded, the caller still owns the event.
+     */
+    boolean add(@NonNull Event event) {
+        String name = event.getName();
+        if (name == null || !event.hasValue() || !eventNames.contains(name))
+            return false;
+        String category = event.getCategory();
+        String item = event.getItemName();
+        long hash = hash(name, category, item);
+        long value = event.getValue();
+        synchronized (this) {
+            int slot = slot(hash, name, category, item);
+            if (slot < 0)
+                return false;
+            counts[slot]++;
+            sums[slot] += value;
+            if (value < mins[slot])
+                mins[slot] = value;
+            if (value > maxs[slot])
+                maxs[slot] = value;
+            sketches[slot].add(value);
+            if (trigger == null && intervalMillis > 0)
+                trigger = Scheduler.schedule(intervalFlush, intervalMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Emit the summaries folded so far and start over.
+     */
+    void flush() {
+        Event[] summaries;
+        synchronized (this) {
+            if (trigger != null) {
+                trigger.cancel(false);
+                trigger = null;
+            }
+            summaries = new Event[size];
+            for (int slot = 0; slot < size; slot++) {
+                QuantileSketch sketch = sketches[slot];
+                summaries[slot] = Event.obtain(names[slot])
+                        .category(categories[slot])
+                        .itemName(items[slot])
+                        .value(sums[slot])
+                        .putLong(PARAM_COUNT, counts[slot])
+                        .putLong(PARAM_SUM, sums[slot])
+                        .putLong(PARAM_MIN, mins[slot])
+                        .putLong(PARAM_MAX, maxs[slot])
+                        .putLong(PARAM_P50, clamp(sketch.quantile(0.5), slot))
+                        .putLong(PARAM_P90, clamp(sketch.quantile(0.9), slot))
+                        .putLong(PARAM_P99, clamp(sketch.quantile(0.99), slot));
+                sketch.clear();
+                names[slot] = categories[slot] = items[slot] = null;
+            }
+            Arrays.fill(hashes, 0L);
+            size = 0;
+        }
+        // outside the lock, emitting may dispatch to the backends right away
+        for (Event summary : summaries) {
+            output.emit(summary);
+        }
+    }
+
+    private long clamp(long value, int slot) {
+        return Math.max(mins[slot], Math.min(maxs[slot], value));
+    }
+
+    /**
+     * @return the slot of the key, a new one if not found, -1 if the table is full.
+     */
+    private int slot(long hash, String name, @Nullable String category, @Nullable String item) {
+        int mask = hashes.length - 1;
+        int i = (int) hash & mask;
+        long h;
+        while ((h = hashes[i]) != 0L) {
+            if (h == hash) {
+                int slot = slots[i];
+                if (equals(names[slot], name) && equals(categories[slot], category) && equals(items[slot], item))
+                    return slot;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == MAX_KEYS)
+            return -1;
+        int slot = size++;
+        hashes[i] = hash;
+        slots[i] = slot;
+        names[slot] = name;
+        categories[slot] = category;
+        items[slot] = item;
+        counts[slot] = 0;
+        sums[slot] = 0;
+        mins[slot] = Long.MAX_VALUE;
+        maxs[slot] = Long.MIN_VALUE;
+        if (sketches[slot] == null)
+            sketches[slot] = new QuantileSketch();
+        return slot;
+    }
+
+    private static long hash(String name, @Nullable String category, @Nullable String item) {
+        long h = name.hashCode();
+        h = h * 0x9e3779b97f4a7c15L + (category == null ? 0 : category.hashCode());
+        h = h * 0x9e3779b97f4a7c15L + (item == null ? 0 : item.hashCode());
+        h = EventGovernor.mix(h);
+        // 0 marks a free slot
+        return h == 0L ? 1L : h;
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == b || (a != null && a.equals(b));
+    }
+}
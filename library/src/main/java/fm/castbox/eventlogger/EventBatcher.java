@@ -0,0 +1,143 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Groups the events of a batching sink, flushed by size, by age, or explicitly on shutdown and
+ * when the app goes to the background.
+ */
+final class EventBatcher {
+
+    interface Delivery {
+        /**
+         * Run a batch delivery on the sink thread.
+         *
+         * @return false if the delivery was rejected.
+         */
+        boolean execute(@NonNull Runnable task);
+
+        /**
+         * Called on the sink thread after a batch was handed to the sink.
+         *
+         * @param error what the sink threw, null if it succeeded.
+         */
+        void completed(long startNanos, @Nullable Exception error);
+    }
+
+    private final EventSink sink;
+    private final BatchPolicy policy;
+    private final Delivery delivery;
+
+    private ArrayList<Event> pending;
+    private ScheduledFuture<?> ageTrigger;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong events = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    private final Runnable ageFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    EventBatcher(@NonNull EventSink sink, @NonNull BatchPolicy policy, @NonNull Delivery delivery) {
+        this.sink = sink;
+        this.policy = policy;
+        this.delivery = delivery;
+    }
+
+    /**
+     * Add an event to the pending batch, the event is retained until delivered.
+     */
+    void add(@NonNull Event event) {
+        List<Event> ready = null;
+        synchronized (this) {
+            if (pending == null)
+                pending = new ArrayList<>(policy.getMaxBatchSize());
+            pending.add(event.retain());
+            if (pending.size() >= policy.getMaxBatchSize()) {
+                ready = take();
+            } else if (pending.size() == 1 && policy.getMaxAgeMillis() > 0) {
+                ageTrigger = Scheduler.schedule(ageFlush, policy.getMaxAgeMillis());
+            }
+        }
+        if (ready != null)
+            deliver(ready);
+    }
+
+    /**
+     * Deliver the pending events now.
+     */
+    void flush() {
+        List<Event> ready;
+        synchronized (this) {
+            ready = take();
+        }
+        if (ready != null)
+            deliver(ready);
+    }
+
+    @NonNull
+    BatchStats getStats() {
+        return new BatchStats(batches.get(), events.get(), dropped.get(), totalFlushNanos.get(), maxFlushNanos.get());
+    }
+
+    private List<Event> take() {
+        if (ageTrigger != null) {
+            ageTrigger.cancel(false);
+            ageTrigger = null;
+        }
+        if (pending == null || pending.isEmpty())
+            return null;
+        List<Event> ready = pending;
+        pending = null;
+        return ready;
+    }
+
+    private void deliver(@NonNull final List<Event> batch) {
+        boolean accepted = delivery.execute(new Runnable() {
+            @Override
+            public void run() {
+                final long start = System.nanoTime();
+                Exception error = null;
+                try {
+                    sink.logEvents(batch);
+                } catch (Exception e) {
+                    error = e;
+                    dropped.addAndGet(batch.size());
+                } finally {
+                    delivery.completed(start, error);
+                    final long elapsed = System.nanoTime() - start;
+                    batches.incrementAndGet();
+                    events.addAndGet(batch.size());
+                    totalFlushNanos.addAndGet(elapsed);
+                    long max;
+                    while (elapsed > (max = maxFlushNanos.get()) && !maxFlushNanos.compareAndSet(max, elapsed)) {
+                        // retry
+                    }
+                    release(batch);
+                }
+            }
+        });
+        if (!accepted) {
+            dropped.addAndGet(batch.size());
+            release(batch);
+        }
+    }
+
+    private static void release(List<Event> batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).release();
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Compact binary form of an {@link Event}, shared by the on-disk journal and other byte level
+ * transports.
+ */
+final class EventCodec {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int FLAG_HAS_VALUE = 1;
+    private static final int FLAG_EXTEND_SESSION = 1 << 1;
+    private static final int FLAG_SESSION = 1 << 2;
+
+    private EventCodec() {
+    }
+
+    /**
+     * Append an encoded event at the buffer position.
+     *
+     * @return the buffer, or a larger copy of it when the event did not fit.
+     */
+    @NonNull
+    static ByteBuffer encode(@NonNull Event event, @NonNull ByteBuffer buffer) {
+        buffer = ensure(buffer, 12);
+        buffer.put((byte) event.getType());
+        int flags = 0;
+        if (event.hasValue())
+            flags |= FLAG_HAS_VALUE;
+        if (event.isExtendSession())
+            flags |= FLAG_EXTEND_SESSION;
+        if (event.getSessionSeq() != 0L)
+            flags |= FLAG_SESSION;
+        buffer.put((byte) flags);
+        buffer.putLong(event.getValue());
+        if ((flags & FLAG_SESSION) != 0) {
+            buffer = ensure(buffer, 16);
+            buffer.putLong(event.getSessionId());
+            buffer.putLong(event.getSessionSeq());
+        }
+        buffer = putString(buffer, event.getName());
+        buffer = putString(buffer, event.getCategory());
+        buffer = putString(buffer, event.getItemName());
+        buffer = putString(buffer, event.getScreen());
+
+        final int count = event.getParamCount();
+        buffer = ensure(buffer, 2);
+        buffer.putShort((short) count);
+        for (int i = 0; i < count; i++) {
+            buffer = putString(buffer, event.getParamKey(i));
+            buffer = ensure(buffer, 9);
+            int kind = event.getParamType(i);
+            buffer.put((byte) kind);
+            switch (kind) {
+                case Event.PARAM_STRING:
+                    buffer = putString(buffer, event.getString(i));
+                    break;
+                case Event.PARAM_LONG:
+                case Event.PARAM_INT:
+                    buffer.putLong(event.getLong(i));
+                    break;
+                case Event.PARAM_DOUBLE:
+                case Event.PARAM_FLOAT:
+                    buffer.putDouble(event.getDouble(i));
+                    break;
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Read an event at the buffer position.
+     *
+     * @return a pooled event owned by the caller.
+     */
+    @NonNull
+    static Event decode(@NonNull ByteBuffer buffer) {
+        int type = buffer.get();
+        int flags = buffer.get();
+        long value = buffer.getLong();
+        long sessionId = 0L;
+        long sessionSeq = 0L;
+        if ((flags & FLAG_SESSION) != 0) {
+            sessionId = buffer.getLong();
+            sessionSeq = buffer.getLong();
+        }
+        Event event = Event.obtain(type, getString(buffer))
+                .category(getString(buffer))
+                .itemName(getString(buffer))
+                .screen(getString(buffer))
+                .extendSession((flags & FLAG_EXTEND_SESSION) != 0)
+                .session(sessionId, sessionSeq);
+        if ((flags & FLAG_HAS_VALUE) != 0)
+            event.value(value);
+
+        int count = buffer.getShort();
+        for (int i = 0; i < count; i++) {
+            String key = getString(buffer);
+            int kind = buffer.get();
+            switch (kind) {
+                case Event.PARAM_STRING:
+                    event.putString(key, getString(buffer));
+                    break;
+                case Event.PARAM_LONG:
+                    event.putLong(key, buffer.getLong());
+                    break;
+                case Event.PARAM_INT:
+                    event.putInt(key, (int) buffer.getLong());
+                    break;
+                case Event.PARAM_DOUBLE:
+                    event.putDouble(key, buffer.getDouble());
+                    break;
+                case Event.PARAM_FLOAT:
+                    event.putFloat(key, (float) buffer.getDouble());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter type " + kind);
+            }
+        }
+        return event;
+    }
+
+    @NonNull
+    static ByteBuffer ensure(@NonNull ByteBuffer buffer, int size) {
+        if (buffer.remaining() >= size)
+            return buffer;
+        int capacity = Math.max(buffer.capacity() * 2, buffer.position() + size);
+        ByteBuffer larger = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    @NonNull
+    private static ByteBuffer putString(@NonNull ByteBuffer buffer, @Nullable String value) {
+        if (value == null) {
+            buffer = ensure(buffer, 4);
+            buffer.putInt(-1);
+            return buffer;
+        }
+        byte[] bytes = value.getBytes(UTF_8);
+        buffer = ensure(buffer, 4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+        return buffer;
+    }
+
+    @Nullable
+    private static String getString(@NonNull ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0)
+            return null;
+        if (length > buffer.remaining())
+            throw new IllegalArgumentException("Corrupted string length " + length);
+        String value;
+        if (buffer.hasArray()) {
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, UTF_8);
+            buffer.position(buffer.position() + length);
+        } else {
+            byte[] bytes = new byte[length];
+            buffer.get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,95 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Suppresses an event identical to one logged less than a window ago, i.e. a screen logged again
+ * on rotation or a double tap.
+ * <p>
+ * Recent event fingerprints are kept in a fixed size set associative table: a fingerprint maps to
+ * one set of {@link #WAYS} entries and replaces the oldest entry of its set, so checking an event
+ * neither allocates nor grows.
+ */
+final class EventDeduplicator {
+
+    static final int SETS = 256;
+    static final int WAYS = 4;
+
+    private final long windowNanos;
+    // null to deduplicate every event
+    private final Set<String> eventNames;
+
+    private final long[] fingerprints = new long[SETS * WAYS];
+    private final long[] times = new long[SETS * WAYS];
+    // duplicates by event name
+    private final ConcurrentHashMap<String, AtomicLong> duplicates = new ConcurrentHashMap<>();
+
+    EventDeduplicator(long windowMillis, @NonNull String[] eventNames) {
+        this.windowNanos = windowMillis * 1000000L;
+        this.eventNames = eventNames.length == 0 ? null : new HashSet<>(Arrays.asList(eventNames));
+    }
+
+    /**
+     * @return true if the same event was seen less than the window ago.
+     */
+    boolean isDuplicate(@NonNull Event event) {
+        String name = event.getName();
+        if (name == null || (eventNames != null && !eventNames.contains(name)))
+            return false;
+        long fingerprint = event.fingerprint();
+        long now = System.nanoTime();
+        int base = ((int) (fingerprint ^ (fingerprint >>> 32)) & (SETS - 1)) * WAYS;
+        synchronized (this) {
+            int oldest = base;
+            for (int i = base; i < base + WAYS; i++) {
+                if (fingerprints[i] == fingerprint && times[i] != 0L) {
+                    // the window starts at the last event let through
+                    if (now - times[i] < windowNanos)
+                        return count(name);
+                    times[i] = now;
+                    return false;
+                }
+                if (times[i] == 0L || times[i] - times[oldest] < 0)
+                    oldest = i;
+                // entries are never cleared, so the free ones are at the end of the set
+                if (times[oldest] == 0L)
+                    break;
+            }
+            fingerprints[oldest] = fingerprint;
+            times[oldest] = now;
+        }
+        return false;
+    }
+
+    private boolean count(String name) {
+        AtomicLong count = duplicates.get(name);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = duplicates.putIfAbsent(name, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * @return suppressed duplicates by event name.
+     */
+    @NonNull
+    Map<String, Long> getDuplicateCounts() {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : duplicates.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+}
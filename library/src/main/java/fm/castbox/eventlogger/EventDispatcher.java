@@ -0,0 +1,178 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Bounded queue drained by a single background thread, so the public log methods only have to
+ * capture an {@link Event} and return.
+ */
+final class EventDispatcher {
+
+    interface Handler {
+        void handle(@NonNull Event event);
+    }
+
+    private final ArrayBlockingQueue<Event> queue;
+    private final OverflowPolicy overflowPolicy;
+    private final Handler handler;
+    private final Thread thread;
+
+    // events accepted but not yet handled, used by awaitIdle()
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Object idleLock = new Object();
+
+    EventDispatcher(int capacity, @NonNull OverflowPolicy overflowPolicy, @NonNull Handler handler) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.overflowPolicy = overflowPolicy;
+        this.handler = handler;
+        this.thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                android.os.Process.setThreadPriority(android.os.Process.THREAD_PRIORITY_BACKGROUND);
+                loop();
+            }
+        }, "EventLogger-dispatcher");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue an event for dispatching, the dispatcher takes over the caller's reference to the event.
+     *
+     * @return false if the event was dropped.
+     */
+    boolean enqueue(@NonNull Event event) {
+        if (Thread.currentThread() == thread) {
+            // logged from inside a backend, blocking here would dead lock the dispatcher.
+            dispatch(event);
+            return true;
+        }
+
+        pending.incrementAndGet();
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    queue.put(event);
+                    return true;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    event.release();
+                    onDropped();
+                    return false;
+                }
+            case DROP_NEWEST:
+                if (queue.offer(event))
+                    return true;
+                event.release();
+                onDropped();
+                return false;
+            case DROP_OLDEST:
+            default:
+                while (!queue.offer(event)) {
+                    Event oldest = queue.poll();
+                    if (oldest != null) {
+                        oldest.release();
+                        onDropped();
+                    }
+                }
+                return true;
+        }
+    }
+
+    /**
+     * Wait until every queued event has been handed to the backends.
+     *
+     * @return false if the timeout elapsed first.
+     */
+    boolean awaitIdle(long timeout, @NonNull TimeUnit unit) {
+        if (Thread.currentThread() == thread) {
+            Event event;
+            while ((event = queue.poll()) != null) {
+                dispatch(event);
+                onHandled();
+            }
+            return true;
+        }
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (idleLock) {
+            while (pending.get() > 0) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0)
+                    return false;
+                try {
+                    idleLock.wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Wait until the queue is drained, without a timeout.
+     */
+    void flush() {
+        while (!awaitIdle(1, TimeUnit.MINUTES)) {
+            if (Thread.currentThread().isInterrupted())
+                return;
+        }
+    }
+
+    /**
+     * @return true if every queued event has been handed to the backends.
+     */
+    boolean isIdle() {
+        return pending.get() == 0;
+    }
+
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private void loop() {
+        while (true) {
+            Event event;
+            try {
+                event = queue.take();
+            } catch (InterruptedException e) {
+                continue;
+            }
+            dispatch(event);
+            onHandled();
+        }
+    }
+
+    private void dispatch(Event event) {
+        try {
+            handler.handle(event);
+        } catch (Throwable e) {
+            Timber.w(e, "Failed to dispatch event %s", event.getName());
+        } finally {
+            event.release();
+        }
+    }
+
+    private void onHandled() {
+        if (pending.decrementAndGet() == 0) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
+        }
+    }
+
+    private void onDropped() {
+        dropped.incrementAndGet();
+        onHandled();
+    }
+}
@@ -0,0 +1,170 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link RateLimits} compiled for the logging threads. The lookup tables are immutable, each
+ * bucket is a single atomic "theoretical arrival time" (GCRA), so admitting an event is a map
+ * lookup and at most one compare-and-set, without locks.
+ */
+final class EventGovernor {
+
+    static final String PARAM_SAMPLING_WEIGHT = "sampling_weight";
+
+    private final Map<String, Rule> names = new HashMap<>();
+    private final Map<String, Bucket> categories = new HashMap<>();
+    // suppressed events by event name
+    private final ConcurrentHashMap<String, AtomicLong> suppressed = new ConcurrentHashMap<>();
+
+    private EventGovernor(RateLimits limits) {
+        for (Map.Entry<String, double[]> limit : limits.names.entrySet()) {
+            rule(limit.getKey()).bucket = new Bucket(limit.getValue()[0], (int) limit.getValue()[1]);
+        }
+        for (Map.Entry<String, Double> rate : limits.sampleRates.entrySet()) {
+            rule(rate.getKey()).sampleRate = rate.getValue();
+        }
+        for (Map.Entry<String, double[]> limit : limits.categories.entrySet()) {
+            categories.put(limit.getKey(), new Bucket(limit.getValue()[0], (int) limit.getValue()[1]));
+        }
+    }
+
+    @NonNull
+    static EventGovernor compile(@NonNull RateLimits limits) {
+        return new EventGovernor(limits);
+    }
+
+    private Rule rule(String name) {
+        Rule rule = names.get(name);
+        if (rule == null) {
+            rule = new Rule(name);
+            names.put(name, rule);
+        }
+        return rule;
+    }
+
+    /**
+     * @param samplingKey hash of the user, see {@link #samplingKey(String)}.
+     * @return false if the event is suppressed, otherwise the sampling weight is added to it.
+     */
+    boolean admit(@NonNull Event event, long samplingKey) {
+        String name = event.getName();
+        if (name == null)
+            return true;
+        Rule rule = names.get(name);
+        if (rule != null && rule.sampleRate < 1) {
+            if (!rule.sampled(samplingKey))
+                return suppress(name);
+        }
+        long now = System.nanoTime();
+        if (rule != null && rule.bucket != null && !rule.bucket.tryAcquire(now))
+            return suppress(name);
+        String category = event.getCategory();
+        if (category != null && !categories.isEmpty()) {
+            Bucket bucket = categories.get(category);
+            if (bucket != null && !bucket.tryAcquire(now))
+                return suppress(name);
+        }
+        if (rule != null && rule.sampleRate < 1)
+            event.putDouble(PARAM_SAMPLING_WEIGHT, 1 / rule.sampleRate);
+        return true;
+    }
+
+    private boolean suppress(String name) {
+        AtomicLong count = suppressed.get(name);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = suppressed.putIfAbsent(name, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * @return suppressed events by event name.
+     */
+    @NonNull
+    Map<String, Long> getSuppressedCounts() {
+        Map<String, Long> result = new HashMap<>();
+        for (Map.Entry<String, AtomicLong> entry : suppressed.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().get());
+        }
+        return result;
+    }
+
+    /**
+     * @return a well mixed hash of the user id, stable across launches.
+     */
+    static long samplingKey(@Nullable String userId) {
+        if (userId == null)
+            return 0L;
+        long h = 1125899906842597L;
+        for (int i = 0; i < userId.length(); i++) {
+            h = 31 * h + userId.charAt(i);
+        }
+        return mix(h);
+    }
+
+    /**
+     * Finalizer of MurmurHash3.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    private static final class Rule {
+        final long nameHash;
+        Bucket bucket;
+        double sampleRate = 1;
+
+        Rule(String name) {
+            nameHash = samplingKey(name);
+        }
+
+        /**
+         * @return true if the user is in the sampled fraction for this event name.
+         */
+        boolean sampled(long samplingKey) {
+            long h = mix(samplingKey ^ nameHash);
+            return (h >>> 11) * 0x1.0p-53 < sampleRate;
+        }
+    }
+
+    /**
+     * Token bucket as generic cell rate algorithm: an event is allowed if the theoretical arrival
+     * time after it is at most {@code burst} intervals ahead of now.
+     */
+    private static final class Bucket {
+        final long interval;
+        final long limit;
+        final AtomicLong arrival = new AtomicLong(Long.MIN_VALUE);
+
+        Bucket(double eventsPerSecond, int burst) {
+            interval = Math.max(1L, (long) (1000000000L / eventsPerSecond));
+            limit = interval * burst;
+        }
+
+        boolean tryAcquire(long now) {
+            while (true) {
+                long current = arrival.get();
+                long next = (current == Long.MIN_VALUE || current - now < 0 ? now : current) + interval;
+                if (next - now > limit)
+                    return false;
+                if (arrival.compareAndSet(current, next))
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,392 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Append-only journal of logged events, so events queued in memory survive the process being killed.
+ * <p>
+ * Events are appended to memory mapped segment files before they are dispatched, a write is a
+ * memory copy and the kernel keeps the pages when the process dies. An event is acknowledged when
+ * its last reference is released, that is once every backend is done with it, including the ones
+ * which queue, batch or buffer it. Events complete out of order, so the checkpoint file holds the
+ * highest sequence number below which every event completed. On the next start, every record after
+ * the checkpoint is replayed, and the segments read back are kept until the replayed events are
+ * journaled again. Segments are only forced to disk on rotation and on {@link #sync()}.
+ * <p>
+ * Record layout: length (int, written last as commit marker), crc32 (int), sequence (long), payload.
+ */
+final class EventJournal {
+
+    private static final int MAGIC = 0x454c4a31; // ELJ1
+    private static final int SEGMENT_HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 16;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final File dir;
+    private final int segmentSize;
+    private final int maxSegments;
+
+    // closed segments, oldest first
+    private final LinkedList<Segment> segments = new LinkedList<>();
+    private Segment current;
+    private long nextSeq;
+
+    private final Object ackLock = new Object();
+    private final MappedByteBuffer checkpoint;
+    private final FileChannel checkpointChannel;
+    private volatile long acked;
+    // completed sequence numbers above the checkpoint, bit (seq % bits) of a window starting at acked + 1
+    private long[] completed = new long[64];
+
+    private final CRC32 crc = new CRC32();
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+    private List<Event> pending;
+    // segments read back on open, deleted once their events are journaled again
+    private List<File> recovered;
+    private long recoveredSeq;
+    private long lost = 0L;
+
+    private EventJournal(@NonNull File dir, int segmentSize, int maxSegments) throws IOException {
+        this.dir = dir;
+        this.segmentSize = segmentSize;
+        this.maxSegments = Math.max(2, maxSegments);
+
+        checkpointChannel = new RandomAccessFile(new File(dir, CHECKPOINT_FILE), "rw").getChannel();
+        checkpoint = checkpointChannel.map(FileChannel.MapMode.READ_WRITE, 0, 8);
+        acked = checkpoint.getLong(0);
+    }
+
+    /**
+     * Open the journal in a directory, reading back the events which were not acknowledged.
+     *
+     * @param segmentSize size of a segment file in bytes.
+     * @param maxSegments max number of segment files, the oldest segment is dropped beyond it.
+     */
+    @NonNull
+    static EventJournal open(@NonNull File dir, int segmentSize, int maxSegments) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Can not create " + dir);
+        EventJournal journal = new EventJournal(dir, segmentSize, maxSegments);
+        journal.recover();
+        return journal;
+    }
+
+    /**
+     * @return the events which were not acknowledged before the last shutdown, only once.
+     * They are owned by the caller and should be logged again, which journals them anew.
+     */
+    @NonNull
+    synchronized List<Event> replay() {
+        List<Event> events = pending;
+        pending = null;
+        return events == null ? Collections.<Event>emptyList() : events;
+    }
+
+    /**
+     * Delete the segments read back on open, once the replayed events were appended again. Until
+     * then a crash replays the events from the old segments, possibly along with the new records.
+     */
+    synchronized void replayed() {
+        if (recovered == null)
+            return;
+        try {
+            if (current != null)
+                current.buffer.force();
+            synchronized (ackLock) {
+                // the old records are replaced by the new ones, move the checkpoint over them
+                if (recoveredSeq + 1 - acked > (long) completed.length << 6)
+                    grow(recoveredSeq + 1 - acked);
+                advance(recoveredSeq + 1);
+                checkpoint.force();
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Failed to sync event journal");
+            return;
+        }
+        for (File file : recovered) {
+            if (!file.delete())
+                Timber.w("Failed to delete journal segment %s", file);
+        }
+        recovered = null;
+    }
+
+    /**
+     * Write an event to the journal, the event acknowledges itself once released by every backend.
+     *
+     * @return sequence number of the record, 0 if the event could not be written.
+     */
+    synchronized long append(@NonNull Event event) {
+        try {
+            scratch.clear();
+            scratch = EventCodec.encode(event, scratch);
+            final int length = scratch.position();
+            final int size = RECORD_HEADER_SIZE + length + 4; // keep room for the next length marker
+            if (SEGMENT_HEADER_SIZE + size > segmentSize)
+                return 0L;
+            if (current == null || current.buffer.remaining() < size)
+                rotate();
+
+            crc.reset();
+            crc.update(scratch.array(), 0, length);
+            final long seq = nextSeq++;
+            final MappedByteBuffer buffer = current.buffer;
+            final int position = buffer.position();
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.putLong(position + 8, seq);
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.put(scratch.array(), 0, length);
+            // commit
+            buffer.putInt(position, length);
+            current.lastSeq = seq;
+            event.journalSeq = seq;
+            event.journal = this;
+            return seq;
+        } catch (Exception e) {
+            Timber.w(e, "Failed to journal event %s", event.getName());
+            return 0L;
+        }
+    }
+
+    /**
+     * Record that every backend is done with an event. The checkpoint only moves once every event
+     * before it is done as well.
+     */
+    void ack(long seq) {
+        synchronized (ackLock) {
+            if (seq <= acked)
+                return;
+            if (seq - acked > (long) completed.length << 6)
+                grow(seq - acked);
+            setCompleted(completed, seq);
+            // only the lowest event in flight moves the checkpoint
+            if (seq == acked + 1)
+                advance(seq);
+        }
+    }
+
+    /**
+     * Give up on the events before the given sequence, then move the checkpoint over the completed
+     * events from it. Called holding the ack lock.
+     */
+    private void advance(long seq) {
+        long next = seq;
+        for (long s = acked + 1; s < next; s++) {
+            clearCompleted(s);
+        }
+        while (isCompleted(next)) {
+            clearCompleted(next);
+            next++;
+        }
+        acked = next - 1;
+        checkpoint.putLong(0, acked);
+    }
+
+    private void grow(long span) {
+        long bits = (long) completed.length << 6;
+        long size = bits;
+        while (size < span) {
+            size <<= 1;
+        }
+        long[] previous = completed;
+        completed = new long[(int) (size >>> 6)];
+        for (long s = acked + 1; s <= acked + bits; s++) {
+            if ((previous[(int) ((s & (bits - 1)) >>> 6)] & (1L << s)) != 0)
+                setCompleted(completed, s);
+        }
+    }
+
+    private static void setCompleted(long[] window, long seq) {
+        long bits = (long) window.length << 6;
+        window[(int) ((seq & (bits - 1)) >>> 6)] |= 1L << seq;
+    }
+
+    private boolean isCompleted(long seq) {
+        long bits = (long) completed.length << 6;
+        return (completed[(int) ((seq & (bits - 1)) >>> 6)] & (1L << seq)) != 0;
+    }
+
+    private void clearCompleted(long seq) {
+        long bits = (long) completed.length << 6;
+        completed[(int) ((seq & (bits - 1)) >>> 6)] &= ~(1L << seq);
+    }
+
+    /**
+     * Force the current segment and the checkpoint to disk.
+     */
+    synchronized void sync() {
+        try {
+            if (current != null)
+                current.buffer.force();
+            synchronized (ackLock) {
+                checkpoint.force();
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Failed to sync event journal");
+        }
+    }
+
+    /**
+     * @return number of journaled events dropped by the segment cap before every backend got them.
+     */
+    synchronized long getLostCount() {
+        return lost;
+    }
+
+    private void recover() throws IOException {
+        File[] files = dir.listFiles(new FileFilter() {
+            @Override
+            public boolean accept(File file) {
+                return file.getName().endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null)
+            files = new File[0];
+        // names are zero padded sequence numbers
+        Arrays.sort(files);
+
+        List<Event> events = new ArrayList<>();
+        long maxSeq = acked;
+        for (File file : files) {
+            maxSeq = Math.max(maxSeq, readSegment(file, events));
+        }
+        pending = events;
+        // the pending events get new sequence numbers once logged again, the checkpoint stays
+        // before the old records until replayed()
+        recovered = new ArrayList<>(Arrays.asList(files));
+        recoveredSeq = maxSeq;
+        nextSeq = maxSeq + 1;
+    }
+
+    private long readSegment(File file, List<Event> events) {
+        long maxSeq = 0L;
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(file, "r");
+            ByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            if (buffer.remaining() < SEGMENT_HEADER_SIZE || buffer.getInt() != MAGIC)
+                return 0L;
+            buffer.getInt(); // version
+
+            byte[] payload = new byte[256];
+            while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+                final int length = buffer.getInt();
+                if (length <= 0 || length > buffer.remaining() - 12)
+                    break;
+                final int checksum = buffer.getInt();
+                final long seq = buffer.getLong();
+                if (payload.length < length)
+                    payload = new byte[length];
+                buffer.get(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum)
+                    break; // torn write
+                maxSeq = Math.max(maxSeq, seq);
+                if (seq > acked) {
+                    try {
+                        events.add(EventCodec.decode(ByteBuffer.wrap(payload, 0, length)));
+                    } catch (RuntimeException e) {
+                        Timber.w(e, "Skip corrupted journal record %d", seq);
+                    }
+                }
+            }
+        } catch (Exception e) {
+            Timber.w(e, "Failed to read journal segment %s", file);
+        } finally {
+            closeQuietly(raf);
+        }
+        return maxSeq;
+    }
+
+    private void rotate() throws IOException {
+        if (current != null) {
+            current.buffer.force();
+            current.close();
+            segments.add(current);
+        }
+        compact();
+
+        File file = new File(dir, String.format(Locale.US, "%020d%s", nextSeq, SEGMENT_SUFFIX));
+        current = new Segment(file);
+        current.channel = new RandomAccessFile(file, "rw").getChannel();
+        current.buffer = current.channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        current.buffer.putInt(MAGIC);
+        current.buffer.putInt(1);
+    }
+
+    /**
+     * Delete the segments which are fully acknowledged, then the oldest ones beyond the cap.
+     */
+    private void compact() {
+        while (!segments.isEmpty()) {
+            Segment oldest = segments.getFirst();
+            boolean acknowledged = oldest.lastSeq <= acked;
+            if (!acknowledged && segments.size() < maxSegments)
+                break;
+            if (!acknowledged) {
+                // the events still in flight can not be replayed anymore, give up on them
+                synchronized (ackLock) {
+                    if (oldest.lastSeq - acked > (long) completed.length << 6)
+                        grow(oldest.lastSeq - acked);
+                    for (long s = acked + 1; s <= oldest.lastSeq; s++) {
+                        if (!isCompleted(s))
+                            lost++;
+                    }
+                    advance(oldest.lastSeq + 1);
+                }
+            }
+            segments.removeFirst();
+            if (!oldest.file.delete())
+                Timber.w("Failed to delete journal segment %s", oldest.file);
+        }
+    }
+
+    private static void closeQuietly(RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private final class Segment {
+        final File file;
+        final long firstSeq;
+        long lastSeq;
+        FileChannel channel;
+        MappedByteBuffer buffer;
+
+        Segment(File file) {
+            this.file = file;
+            this.firstSeq = nextSeq;
+            this.lastSeq = nextSeq - 1;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+            }
+            channel = null;
+        }
+    }
+}
@@ -2,24 +2,31 @@ package fm.castbox.eventlogger;
 
 import android.app.Activity;
 import android.app.Application;
+import android.content.BroadcastReceiver;
 import android.content.Context;
-import android.content.SharedPreferences;
-import android.os.Bundle;
 import android.text.TextUtils;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
-import com.facebook.GraphRequest;
-import com.facebook.GraphResponse;
-import com.facebook.appevents.AppEventsConstants;
 import com.facebook.appevents.AppEventsLogger;
 import com.google.firebase.analytics.FirebaseAnalytics;
 
-import java.net.URLDecoder;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import timber.log.Timber;
 
@@ -29,27 +36,22 @@ import timber.log.Timber;
 
 public class EventLogger {
 
-    private static EventLogger instance;
+    private static class InstanceHolder {
+        static final EventLogger INSTANCE = new EventLogger();
+    }
 
     public static EventLogger getInstance() {
-        if (instance == null) {
-            instance = new EventLogger();
-        }
-        return instance;
+        return InstanceHolder.INSTANCE;
     }
 
-    private final static String KEY_CAMPAIGN_UTM_SOURCE = "utm_source";
-    private final static String KEY_CAMPAIGN_UTM_MEDIUM = "utm_medium";
-    private final static String KEY_CAMPAIGN_UTM_CAMPAIGN = "utm_campaign";
+    private final static String KEY_CAMPAIGN_UTM_SOURCE = CampaignInfo.KEY_UTM_SOURCE;
+    private final static String KEY_CAMPAIGN_UTM_MEDIUM = CampaignInfo.KEY_UTM_MEDIUM;
+    private final static String KEY_CAMPAIGN_UTM_CAMPAIGN = CampaignInfo.KEY_UTM_CAMPAIGN;
 
     static final String PLAY_STORE_REFERRER_KEY = "referrer";
     public static final String PLAY_STORE = "store";
     private static final String PLAY_STORE_ATTRIBUTION_KEY = "attribution";
 
-    private static final String KEY_FIRST_LAUNCH_DATE = "firstLaunchDate";
-    private static final String KEY_RETENTION_D2 = "rd2";
-    private static final String KEY_RETENTION_W2 = "rw2";
-    private static final String KEY_RETENTION_M2 = "rm2";
 
     public final static String EVENT_NAME_SCREEN = "screen";
     private final static String EVENT_CATEGORY_SCREEN = "screen";
@@ -58,57 +60,334 @@ public class EventLogger {
     public final static String EVENT_NAME_USER_ACTION = "user_action";
 
     // enable or disable event logger
-    private boolean enabled = true;
-    // sharePreferences
-    private SharedPreferences sharedPreferences;
+    private volatile boolean enabled = true;
+    // launch, session and milestone state
+    private volatile StateStore state;
+    // fetches the install referrer into the state
+    private volatile InstallReferrerFetcher referrerFetcher;
+    // times screens, sessions and milestones
+    private volatile Clock clock = Clock.SYSTEM;
+    private volatile MilestoneSchedule milestoneSchedule = new MilestoneSchedule(Milestone.DEFAULTS, Clock.SYSTEM);
+    // a session lasts until the app goes to the background
+    private final AtomicBoolean inSession = new AtomicBoolean(false);
+    // session ids and sequence numbers of the events, null when disabled
+    private volatile SessionTracker sessions;
+    // tells the sessions apart for the session count when they are disabled
+    private volatile SessionTracker sessionCounter;
+    private static final long SESSION_TIMEOUT = 30 * 60 * 1000L;
 
     private boolean enableFirebaseAnalytics = false;
     private boolean enableFacebookAnalytics = false;
     // instances
-    private FirebaseAnalytics firebaseAnalytics; // Google firebase event logger
-    private AppEventsLogger facebookEventsLogger; // Facebook event logger
-
-    // event name filter
-    private Set<String> facebookEventNameFilters;
+    private volatile FirebaseEventSink firebaseSink; // Google firebase event logger
+    private volatile FacebookEventSink facebookSink; // Facebook event logger
+    // when the sdk backends are created, and the stand-ins until they are
+    private InitPolicy initPolicy = InitPolicy.IMMEDIATE;
+    private final List<LazySink> lazySinks = new ArrayList<>();
+    private final AtomicBoolean firstFrameHooked = new AtomicBoolean(false);
+
+    // registered backends, copy on write so dispatching never locks
+    private volatile SinkRunner[] sinks = new SinkRunner[0];
+    // compiled routing rules by sink name
+    private final Map<String, EventRouter> routers = new ConcurrentHashMap<>();
+    // client side rate limits, null when not set
+    private volatile EventGovernor governor;
+    // declared events and firebase limits, null when not set
+    private volatile EventValidator validator;
+    // hash of the user id for sampling, 0 until known
+    private volatile long samplingKey;
+    // coalesces user property updates
+    private final UserPropertyStore userProperties = new UserPropertyStore(new UserPropertyStore.Output() {
+        @Override
+        public void emit(@NonNull Event event) {
+            submit(event);
+        }
+    });
+    // suppresses repeated identical events, null when disabled
+    private volatile EventDeduplicator deduplicator;
+    // folds the values of selected events into summaries, null when disabled
+    private volatile EventAggregator aggregator;
+    // metrics by sink name and of the log methods, null while metrics are disabled
+    private volatile Map<String, SinkMetrics> sinkMetrics;
+    private volatile SinkMetrics callerMetrics;
+    private ScheduledFuture<?> metricsReport;
 
     // screen time
-    private String screenName;
-    private String shortScreenName;
-    private long lastScreenLogTime = 0L;
-    private long firstLaunchTime = 0L;
-
-    private Boolean retentionD2 = null;
-    private Boolean retentionW2 = null;
-    private Boolean retentionM2 = null;
+    private final AtomicReference<ScreenState> screenState = new AtomicReference<>(ScreenState.NONE);
+
+    // count the session the app came to the foreground with, then log the milestones it reached
+    // once the state is read
+    private final Runnable startSession = new Runnable() {
+        @Override
+        public void run() {
+            StateStore state = EventLogger.this.state;
+            SessionTracker sessions = sessionTracker();
+            if (sessions.onForeground())
+                sessions.start(state.startSession());
+            logMilestoneEvent();
+        }
+    };
 
-    private EventLoggerCallback eventLoggerCallback;
+    private final Runnable checkMilestones = new Runnable() {
+        @Override
+        public void run() {
+            logMilestoneEvent();
+        }
+    };
+
+    private volatile EventLoggerCallback eventLoggerCallback;
+    // last log calls, null while tracing is disabled
+    private volatile EventTrace trace;
+    private ScheduledFuture<?> traceForward;
+    private static final long TRACE_FORWARD_INTERVAL = 500L;
+    // answers of the callback by event name and category, null without callback
+    private volatile ExtendSessionCache extendSessionCache;
+
+    // no new screen this long after a screen pause means the app went to the background
+    private static final long BACKGROUND_DELAY = 2000L;
+    // time between two checks for the dispatcher to be idle after going to the background
+    private static final long IDLE_CHECK_INTERVAL = 50L;
+    // the deferred backends are created this long after init if no screen was drawn before
+    private static final long FIRST_FRAME_TIMEOUT = 10 * 1000L;
+
+    // async dispatching, null means events are dispatched on the caller thread
+    private volatile EventDispatcher dispatcher;
+
+    // events of other processes of the app, see enableMultiProcess
+    private static final int PROCESS_SINGLE = 0;
+    private static final int PROCESS_AUTO = 1;
+    private static final int PROCESS_MAIN = 2;
+    private static final int PROCESS_SECONDARY = 3;
+    private static final int PROCESS_RING_CAPACITY = 256 * 1024;
+    private static final long PROCESS_POLL_INTERVAL = 200L;
+    private int processMode = PROCESS_SINGLE;
+    // ring the main process drains, null in other processes
+    private volatile ProcessRing inbox;
+    // ring a secondary process appends its events to, null in the main process
+    private volatile ProcessRing outbox;
+
+    // on-disk journal
+    private boolean enableJournal = false;
+    private int journalSegmentSize;
+    private int journalMaxSegments;
+    private volatile EventJournal journal;
 
     private EventLogger() {
     }
 
-    public EventLogger init(@NonNull Application application, EventLoggerCallback callback) {
+    public EventLogger init(@NonNull final Application application, EventLoggerCallback callback) {
         eventLoggerCallback = callback;
+        extendSessionCache = callback != null ? new ExtendSessionCache(callback) : null;
+
+        // the main process keeps the state and talks to the backends
+        if (isSecondaryProcess(application) && openOutbox(application))
+            return this;
 
-        sharedPreferences = application.getSharedPreferences("EventLogger", Context.MODE_PRIVATE);
+        openState(application);
 
         if (enabled) {
             // firebase
-            if (enableFirebaseAnalytics) {
-                firebaseAnalytics = FirebaseAnalytics.getInstance(application);
-                firebaseAnalytics.setAnalyticsCollectionEnabled(true);
+            if (enableFirebaseAnalytics && firebaseSink == null && !hasEventSink(FirebaseEventSink.NAME)) {
+                if (initPolicy == InitPolicy.IMMEDIATE) {
+                    firebaseSink = new FirebaseEventSink(application);
+                    addEventSink(firebaseSink);
+                } else {
+                    addLazySink(FirebaseEventSink.NAME, new LazySink.Factory() {
+                        @NonNull
+                        @Override
+                        public EventSink create() {
+                            return firebaseSink = new FirebaseEventSink(application);
+                        }
+                    });
+                }
             }
             // fan
-            if (enableFacebookAnalytics) {
-                // disabled since v4.19.0
-                //if (!FacebookSdk.isInitialized())
-                //    FacebookSdk.sdkInitialize(application);
-                AppEventsLogger.activateApp(application);
-                facebookEventsLogger = AppEventsLogger.newLogger(application);
+            if (enableFacebookAnalytics && facebookSink == null && !hasEventSink(FacebookEventSink.NAME)) {
+                if (initPolicy == InitPolicy.IMMEDIATE) {
+                    facebookSink = new FacebookEventSink(application);
+                    addEventSink(facebookSink);
+                } else {
+                    addLazySink(FacebookEventSink.NAME, new LazySink.Factory() {
+                        @NonNull
+                        @Override
+                        public EventSink create() {
+                            return facebookSink = new FacebookEventSink(application);
+                        }
+                    });
+                }
             }
+            if (initPolicy == InitPolicy.BACKGROUND) {
+                createLazySinks();
+            } else if (initPolicy == InitPolicy.FIRST_FRAME) {
+                // in case no screen is logged, i.e. the process was started by a service
+                Scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        createLazySinks();
+                    }
+                }, FIRST_FRAME_TIMEOUT);
+            }
+        }
+        // the install time is set when the state is read.
+
+        // in case the first launch did not get the install referrer
+        if (enabled)
+            fetchInstallReferrer(application, null);
+
+        if (enabled && enableJournal && journal == null) {
+            try {
+                journal = EventJournal.open(new File(application.getFilesDir(), "eventlogger/journal"),
+                        journalSegmentSize, journalMaxSegments);
+                // log again what did not reach the backends before the process died
+                for (Event event : journal.replay()) {
+                    submit(event);
+                }
+                journal.replayed();
+            } catch (Exception e) {
+                Timber.w(e, "Failed to open event journal");
+            }
+        }
+
+        if (enabled && processMode != PROCESS_SINGLE)
+            openInbox(application);
+
+        return this;
+    }
+
+    private boolean isSecondaryProcess(@NonNull Context context) {
+        switch (processMode) {
+            case PROCESS_AUTO:
+                String name = currentProcessName();
+                return name != null && !name.equals(context.getPackageName());
+            case PROCESS_SECONDARY:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    @Nullable
+    private static String currentProcessName() {
+        try {
+            FileInputStream in = new FileInputStream("/proc/self/cmdline");
+            try {
+                byte[] bytes = new byte[256];
+                int length = Math.max(in.read(bytes), 0);
+                int end = 0;
+                while (end < length && bytes[end] != 0)
+                    end++;
+                return new String(bytes, 0, end, "UTF-8").trim();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return false if the ring can not be opened, the process then logs to the backends itself.
+     */
+    private synchronized boolean openOutbox(@NonNull Context context) {
+        if (outbox != null)
+            return true;
+        try {
+            outbox = ProcessRing.open(new File(context.getFilesDir(), "eventlogger/funnel"), PROCESS_RING_CAPACITY);
+            return true;
+        } catch (IOException e) {
+            Timber.w(e, "Failed to open the event funnel, logging from this process");
+            return false;
+        }
+    }
+
+    private synchronized void openInbox(@NonNull Context context) {
+        if (inbox != null)
+            return;
+        try {
+            inbox = ProcessRing.open(new File(context.getFilesDir(), "eventlogger/funnel"), PROCESS_RING_CAPACITY);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to open the event funnel");
+            return;
+        }
+        Scheduler.get().scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    drainInbox();
+                } catch (Throwable ignored) {
+                }
+            }
+        }, 0L, PROCESS_POLL_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Dispatch the events logged by the other processes.
+     */
+    private void drainInbox() {
+        ProcessRing inbox = this.inbox;
+        if (inbox != null && inbox.hasPending()) {
+            inbox.drain(new ProcessRing.Output() {
+                @Override
+                public void emit(@NonNull Event event) {
+                    submit(event);
+                }
+            });
+        }
+    }
+
+    @NonNull
+    private synchronized StateStore openState(@NonNull Context context) {
+        if (state == null) {
+            Context application = context.getApplicationContext();
+            state = StateStore.open(application, new File(application.getFilesDir(), "eventlogger/state"));
+            sessionCounter = new SessionTracker(clock, SESSION_TIMEOUT, null);
+            userProperties.setState(state);
+            referrerFetcher = new InstallReferrerFetcher(application, state, new InstallReferrerFetcher.Listener() {
+                @Override
+                public void onInstallReferrer(@NonNull InstallReferrer referrer) {
+                    String url = referrer.getUrl();
+                    if (!TextUtils.isEmpty(url)) {
+                        logEvent(PLAY_STORE, PLAY_STORE_REFERRER_KEY, url);
+                        setCampaignParams(url);
+                    }
+                }
+            });
+        }
+        return state;
+    }
+
+    /**
+     * Fetch the install referrer once per installation, see {@link CampaignTrackingReceiver}.
+     *
+     * @param result broadcast held open until the referrer is fetched, null if not called from a receiver.
+     */
+    void fetchInstallReferrer(@NonNull Context context, @Nullable BroadcastReceiver.PendingResult result) {
+        if (outbox != null) {
+            // fetched by the main process
+            if (result != null)
+                result.finish();
+            return;
         }
-        // to set the install time in case of not exist.
-        getInstallTime();
+        openState(context);
+        referrerFetcher.fetch(result);
+    }
 
+    /**
+     * @return the install referrer, null until it is fetched or if Google Play has none.
+     */
+    @Nullable
+    public InstallReferrer getInstallReferrer() {
+        StateStore state = this.state;
+        return state == null ? null : state.getInstallReferrer();
+    }
+
+    /**
+     * Set when the firebase and facebook backends are created, to keep their sdk setup out of
+     * Application.onCreate. Must be called before init. {@link #getFirebaseAnalytics()} and
+     * {@link #getFacebookEventsLogger()} return null until the backend is created.
+     */
+    public EventLogger setInitPolicy(@NonNull InitPolicy initPolicy) {
+        this.initPolicy = initPolicy;
         return this;
     }
 
@@ -127,73 +406,619 @@ public class EventLogger {
         return enableFacebookAnalytics(null);
     }
 
+    /**
+     * @param filter event names to log to facebook, null to log all events.
+     */
     public EventLogger enableFacebookAnalytics(Set<String> filter) {
         // facebook
         enableFacebookAnalytics = true;
-        facebookEventNameFilters = filter;
+        setRoutingRules(FacebookEventSink.NAME, filter == null ? null : new RoutingRules().allow(filter));
         return this;
     }
 
-    public FirebaseAnalytics getFirebaseAnalytics() {
-        return firebaseAnalytics;
+    /**
+     * Set which events a backend receives. Rules are compiled once here, and can be replaced at
+     * any time, i.e. from remote config, without blocking the logging threads.
+     *
+     * @param sinkName backend name, the backend does not need to be registered yet.
+     * @param rules    routing rules, null to send every event to the backend.
+     */
+    public synchronized EventLogger setRoutingRules(@NonNull String sinkName, @Nullable RoutingRules rules) {
+        EventRouter router = rules == null ? null : EventRouter.compile(rules);
+        if (router == null)
+            routers.remove(sinkName);
+        else
+            routers.put(sinkName, router);
+        for (SinkRunner runner : sinks) {
+            if (TextUtils.equals(runner.sink.getName(), sinkName))
+                runner.setRouter(router);
+        }
+        return this;
     }
 
-    public AppEventsLogger getFacebookEventsLogger() {
-        return facebookEventsLogger;
+    /**
+     * Limit or sample high frequency events before they reach any backend. The limits are
+     * compiled once here and can be replaced at any time.
+     *
+     * @param limits rate limits, null to remove them.
+     */
+    public EventLogger setRateLimits(@Nullable RateLimits limits) {
+        governor = limits == null ? null : EventGovernor.compile(limits);
+        return this;
+    }
+
+    /**
+     * Check events against declared names, parameters and types and the firebase limits before
+     * they reach any backend. The schema is compiled once here and can be replaced at any time.
+     *
+     * @param schema event schema, null to remove it.
+     */
+    public EventLogger setEventSchema(@Nullable EventSchema schema) {
+        validator = schema == null ? null : EventValidator.compile(schema);
+        return this;
+    }
+
+    /**
+     * @return violations of the event schema since it was set by event name and violation, i.e.
+     * "play_progress/truncated". Violations are undeclared_event, invalid_name, undeclared_param,
+     * invalid_param, too_many_params, truncated, coerced and invalid_value.
+     */
+    @NonNull
+    public Map<String, Long> getSchemaViolationCounts() {
+        EventValidator validator = this.validator;
+        return validator == null ? new HashMap<String, Long>() : validator.getViolationCounts();
+    }
+
+    /**
+     * Drop an event identical to one logged less than the window ago, i.e. a screen logged again
+     * on rotation or an action logged twice by a double tap. Events are identical if their name,
+     * category, item name, value and parameters are equal.
+     *
+     * @param windowMillis time after an event during which repeats are dropped.
+     * @param eventNames   events to deduplicate, none to deduplicate every event. Screen events
+     *                     are named "screen".
+     */
+    public EventLogger enableDeduplication(long windowMillis, @NonNull String... eventNames) {
+        deduplicator = new EventDeduplicator(windowMillis, eventNames);
+        return this;
+    }
+
+    public EventLogger disableDeduplication() {
+        deduplicator = null;
+        return this;
+    }
+
+    /**
+     * @return duplicates dropped since deduplication was enabled, by event name.
+     */
+    @NonNull
+    public Map<String, Long> getDuplicateCounts() {
+        EventDeduplicator deduplicator = this.deduplicator;
+        return deduplicator == null ? new HashMap<String, Long>() : deduplicator.getDuplicateCounts();
+    }
+
+    /**
+     * @return events suppressed by the rate limits since they were set, by event name.
+     */
+    @NonNull
+    public Map<String, Long> getSuppressedCounts() {
+        EventGovernor governor = this.governor;
+        return governor == null ? new HashMap<String, Long>() : governor.getSuppressedCounts();
+    }
+
+    /**
+     * Dispatch events on a background thread with a queue of 1024 events, dropping the oldest
+     * event when the queue is full.
+     */
+    public EventLogger enableAsyncDispatch() {
+        return enableAsyncDispatch(1024, OverflowPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * Dispatch events on a background thread. Log methods only capture the event into a bounded
+     * queue and return, the backends are called from the dispatcher thread.
+     *
+     * @param capacity       max number of queued events.
+     * @param overflowPolicy what to do when the queue is full.
+     */
+    public synchronized EventLogger enableAsyncDispatch(int capacity, @NonNull OverflowPolicy overflowPolicy) {
+        if (dispatcher == null) {
+            dispatcher = new EventDispatcher(capacity, overflowPolicy, new EventDispatcher.Handler() {
+                @Override
+                public void handle(@NonNull Event event) {
+                    dispatch(event);
+                }
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Replace the clock of screen times, and of the sessions and milestones enabled after this. For tests.
+     */
+    EventLogger setClock(@NonNull Clock clock) {
+        this.clock = clock;
+        return this;
+    }
+
+    /**
+     * Track sessions which end after 30 minutes in the background.
+     */
+    public EventLogger enableSessions() {
+        return enableSessions(SESSION_TIMEOUT);
+    }
+
+    /**
+     * Track sessions: a session starts when the app comes to the foreground and ends once the app
+     * stayed in the background for the timeout, logging app_session_start with the session number
+     * as value and app_session_end with the foreground time as value and the number of events.
+     * Every event logged during a session carries its id and sequence number, see
+     * {@link Event#getSessionId()}. Sessions are timed with the elapsed realtime, not the wall
+     * clock. Must be called before the first screen is logged.
+     *
+     * @param timeoutMillis time in the background after which the session ends, 0 to end it as
+     *                      soon as the app goes to the background.
+     */
+    public EventLogger enableSessions(long timeoutMillis) {
+        sessions = new SessionTracker(clock, timeoutMillis, new SessionTracker.Output() {
+            @Override
+            public void emit(@NonNull Event event) {
+                if (enabled)
+                    submit(event);
+                else
+                    event.release();
+            }
+        });
+        return this;
+    }
+
+    /**
+     * @return the tracker of the logged sessions, or the one only counting them when they are
+     * disabled, so both count the same sessions.
+     */
+    private SessionTracker sessionTracker() {
+        SessionTracker sessions = this.sessions;
+        return sessions != null ? sessions : sessionCounter;
+    }
+
+    /**
+     * @return id of the current session, the start time of the session in milliseconds; 0 if
+     * sessions are not enabled or no session is open.
+     */
+    public long getSessionId() {
+        SessionTracker sessions = this.sessions;
+        return sessions == null ? 0L : sessions.getSessionId();
+    }
+
+    /**
+     * Funnel the events of every process of the app through the main process, the one named after
+     * the package, so only it creates the firebase and facebook backends and keeps the launch state.
+     * The other processes only normalize their events and append them to a memory mapped ring, which
+     * the main process drains every 200ms; events logged while it is not running are drained when it
+     * starts. Must be called before init in every process.
+     */
+    public EventLogger enableMultiProcess() {
+        processMode = PROCESS_AUTO;
+        return this;
+    }
+
+    /**
+     * Funnel the events of every process of the app through one process, see {@link #enableMultiProcess()}.
+     *
+     * @param mainProcess true in the process which talks to the backends, false in the others.
+     */
+    public EventLogger enableMultiProcess(boolean mainProcess) {
+        processMode = mainProcess ? PROCESS_MAIN : PROCESS_SECONDARY;
+        return this;
+    }
+
+    /**
+     * Journal events on disk before dispatching them, with 256KB segments and at most 4 segments.
+     */
+    public EventLogger enableJournal() {
+        return enableJournal(256 * 1024, 4);
+    }
+
+    /**
+     * Journal events on disk before dispatching them. Events which did not reach the backends,
+     * because the process was killed, are logged again on the next {@link #init(Application, EventLoggerCallback)}.
+     * Must be called before init.
+     *
+     * @param segmentSize size of a journal segment file in bytes.
+     * @param maxSegments max number of segment files, the oldest unacknowledged events are dropped beyond it.
+     */
+    public EventLogger enableJournal(int segmentSize, int maxSegments) {
+        enableJournal = true;
+        journalSegmentSize = segmentSize;
+        journalMaxSegments = maxSegments;
+        return this;
+    }
+
+    /**
+     * Fold the values of these events into one summary per name, category and item name instead
+     * of logging each of them. A summary is logged as an event with the sum as value and count,
+     * sum, min, max, p50, p90 and p99 parameters.
+     *
+     * @param intervalMillis log the summaries this long after the first folded value, they are
+     *                       also logged on {@link #flush()} and when the app goes to the background.
+     * @param eventNames     events to aggregate, only events with a value are folded.
+     */
+    public synchronized EventLogger enableAggregation(long intervalMillis, @NonNull String... eventNames) {
+        if (aggregator != null)
+            aggregator.flush();
+        aggregator = new EventAggregator(new HashSet<>(Arrays.asList(eventNames)), intervalMillis, new EventAggregator.Output() {
+            @Override
+            public void emit(@NonNull Event event) {
+                submit(event);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Keep the last log calls in memory, see {@link #dumpTrace()}. The calls are formatted only
+     * when dumped, without tracing a log call pays a null check.
+     *
+     * @param capacity number of calls kept.
+     * @param timber   also log the calls to Timber, formatted on a background thread.
+     */
+    public synchronized EventLogger enableTrace(int capacity, boolean timber) {
+        if (traceForward != null) {
+            traceForward.cancel(false);
+            traceForward = null;
+        }
+        final EventTrace trace = new EventTrace(capacity);
+        if (timber) {
+            traceForward = Scheduler.get().scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        trace.forward();
+                    } catch (Exception ignored) {
+                    }
+                }
+            }, TRACE_FORWARD_INTERVAL, TRACE_FORWARD_INTERVAL, TimeUnit.MILLISECONDS);
+        }
+        this.trace = trace;
+        return this;
+    }
+
+    public synchronized EventLogger disableTrace() {
+        if (traceForward != null) {
+            traceForward.cancel(false);
+            traceForward = null;
+        }
+        trace = null;
+        return this;
+    }
+
+    /**
+     * @return the traced log calls, oldest first, i.e. for a bug report. Empty while tracing is disabled.
+     */
+    @NonNull
+    public List<String> dumpTrace() {
+        EventTrace trace = this.trace;
+        return trace == null ? new ArrayList<String>() : trace.dump();
+    }
+
+    /**
+     * Record call counts, errors and latencies of every sink method and of each public log method,
+     * the latter timed on the caller thread through dedup, rate limits, schema and dispatch, see
+     * {@link #getMetrics()}. Without it, recording costs a null check.
+     */
+    public synchronized EventLogger enableMetrics() {
+        if (sinkMetrics == null) {
+            sinkMetrics = new ConcurrentHashMap<>();
+            callerMetrics = SinkMetrics.forCaller();
+            for (SinkRunner runner : sinks) {
+                runner.setMetrics(metricsOf(runner.sink.getName()), callerMetrics);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Record metrics and hand a snapshot to the listener periodically.
+     *
+     * @param intervalMillis time between two snapshots.
+     */
+    public synchronized EventLogger enableMetrics(final long intervalMillis, @NonNull final MetricsListener listener) {
+        enableMetrics();
+        if (metricsReport != null)
+            metricsReport.cancel(false);
+        metricsReport = Scheduler.get().scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                MetricsSnapshot snapshot = getMetrics();
+                if (snapshot == null)
+                    return;
+                try {
+                    listener.onMetrics(snapshot);
+                } catch (Exception ignored) {
+                }
+            }
+        }, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Stop recording metrics, the recorded metrics are discarded.
+     */
+    public synchronized EventLogger disableMetrics() {
+        if (metricsReport != null) {
+            metricsReport.cancel(false);
+            metricsReport = null;
+        }
+        for (SinkRunner runner : sinks) {
+            runner.setMetrics(null, null);
+        }
+        sinkMetrics = null;
+        callerMetrics = null;
+        return this;
+    }
+
+    /**
+     * @return metrics since they were enabled, null if they are disabled.
+     */
+    @Nullable
+    public MetricsSnapshot getMetrics() {
+        Map<String, SinkMetrics> metrics = sinkMetrics;
+        SinkMetrics caller = callerMetrics;
+        if (metrics == null || caller == null)
+            return null;
+        List<MethodStats> methods = new ArrayList<>();
+        caller.snapshot(methods);
+        for (SinkMetrics sink : metrics.values()) {
+            sink.snapshot(methods);
+        }
+        return new MetricsSnapshot(System.currentTimeMillis(), methods);
+    }
+
+    /**
+     * Metrics are kept by sink name, so a removed and added again sink keeps its metrics.
+     */
+    private SinkMetrics metricsOf(String sinkName) {
+        SinkMetrics metrics = sinkMetrics.get(sinkName);
+        if (metrics == null) {
+            metrics = SinkMetrics.forSink(sinkName);
+            sinkMetrics.put(sinkName, metrics);
+        }
+        return metrics;
+    }
+
+    /**
+     * Log aggregated events one by one again, the pending summaries are logged first.
+     */
+    public synchronized EventLogger disableAggregation() {
+        EventAggregator aggregator = this.aggregator;
+        this.aggregator = null;
+        if (aggregator != null)
+            aggregator.flush();
+        return this;
+    }
+
+    /**
+     * Log the pending summaries, block until all queued events have been dispatched, hand the
+     * pending batches to the batching backends and force the journal and the launch state to disk.
+     */
+    public void flush() {
+        userProperties.flush();
+        if (aggregator != null)
+            aggregator.flush();
+        drainInbox();
+        if (dispatcher != null)
+            dispatcher.flush();
+        flushBatches();
+        if (journal != null)
+            journal.sync();
+        if (state != null)
+            state.sync();
+    }
+
+    private void flushBatches() {
+        for (SinkRunner runner : sinks) {
+            runner.flushBatch();
+        }
+    }
+
+    /**
+     * @param sinkName name of a batching backend.
+     * @return batch statistics of the backend, null if it is not registered or not batching.
+     */
+    @Nullable
+    public BatchStats getBatchStats(@NonNull String sinkName) {
+        for (SinkRunner runner : sinks) {
+            if (TextUtils.equals(runner.sink.getName(), sinkName))
+                return runner.getBatchStats();
+        }
+        return null;
+    }
+
+    /**
+     * Wait for the queued events to be dispatched.
+     *
+     * @param timeoutMillis max time to wait.
+     * @return true if the queue is empty, false if the timeout elapsed first.
+     */
+    public boolean awaitIdle(long timeoutMillis) {
+        return dispatcher == null || dispatcher.awaitIdle(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of events dropped because a queue was full: the async dispatcher, the
+     * threads of background backends, the backends not created yet, the ring between the
+     * processes or the journal segments. Dropped batches are reported by {@link #getBatchStats(String)}.
+     */
+    public long getDroppedEventCount() {
+        long dropped = dispatcher == null ? 0 : dispatcher.getDroppedCount();
+        for (SinkRunner runner : sinks) {
+            dropped += runner.getDroppedCount();
+        }
+        EventJournal journal = this.journal;
+        if (journal != null)
+            dropped += journal.getLostCount();
+        ProcessRing ring = outbox != null ? outbox : inbox;
+        if (ring != null)
+            dropped += ring.getDroppedCount();
+        synchronized (lazySinks) {
+            for (LazySink sink : lazySinks) {
+                dropped += sink.getDroppedCount();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Register a backend, every event logged from now on is handed to it as well.
+     */
+    public synchronized EventLogger addEventSink(@NonNull EventSink sink) {
+        SinkRunner[] current = sinks;
+        for (SinkRunner runner : current) {
+            if (runner.sink == sink || TextUtils.equals(runner.sink.getName(), sink.getName()))
+                return this;
+        }
+        SinkRunner[] updated = new SinkRunner[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, current.length);
+        updated[current.length] = new SinkRunner(sink);
+        updated[current.length].setRouter(routers.get(sink.getName()));
+        if (sinkMetrics != null)
+            updated[current.length].setMetrics(metricsOf(sink.getName()), callerMetrics);
+        sinks = updated;
+        return this;
+    }
+
+    private boolean hasEventSink(String name) {
+        for (SinkRunner runner : sinks) {
+            if (TextUtils.equals(runner.sink.getName(), name))
+                return true;
+        }
+        return false;
+    }
+
+    private void addLazySink(String name, LazySink.Factory factory) {
+        LazySink sink = new LazySink(name, initPolicy == InitPolicy.FIRST_USE, factory);
+        synchronized (lazySinks) {
+            lazySinks.add(sink);
+        }
+        addEventSink(sink);
+    }
+
+    private void createLazySinks() {
+        synchronized (lazySinks) {
+            for (LazySink sink : lazySinks) {
+                sink.create();
+            }
+        }
+    }
+
+    /**
+     * Create the deferred backends once the first frame of the activity is drawn, a view posts its
+     * runnables after its first layout.
+     */
+    private void createLazySinksAfterDraw(@NonNull Activity activity) {
+        try {
+            activity.getWindow().getDecorView().post(new Runnable() {
+                @Override
+                public void run() {
+                    createLazySinks();
+                }
+            });
+        } catch (Exception e) {
+            createLazySinks();
+        }
+    }
+
+    /**
+     * Unregister a backend by name.
+     */
+    public synchronized EventLogger removeEventSink(@NonNull String name) {
+        SinkRunner[] current = sinks;
+        List<SinkRunner> updated = new ArrayList<>(current.length);
+        for (SinkRunner runner : current) {
+            if (TextUtils.equals(runner.sink.getName(), name))
+                runner.shutdown();
+            else
+                updated.add(runner);
+        }
+        sinks = updated.toArray(new SinkRunner[updated.size()]);
+        return this;
     }
 
-    private boolean facebookEventLoggable(@NonNull String eventName) {
-        return eventLoggable(eventName, facebookEventNameFilters);
+    /**
+     * @return registered backends.
+     */
+    @NonNull
+    public List<EventSink> getEventSinks() {
+        SinkRunner[] current = sinks;
+        List<EventSink> result = new ArrayList<>(current.length);
+        for (SinkRunner runner : current) {
+            result.add(runner.sink);
+        }
+        return result;
+    }
+
+    public FirebaseAnalytics getFirebaseAnalytics() {
+        return firebaseSink == null ? null : firebaseSink.getFirebaseAnalytics();
     }
 
-    private boolean eventLoggable(@NonNull String eventName, Set<String> filter) {
-        return filter == null || filter.contains(eventName);
+    public AppEventsLogger getFacebookEventsLogger() {
+        return facebookSink == null ? null : facebookSink.getFacebookEventsLogger();
     }
 
     public void setCampaignParams(@NonNull String url) {
         try {
             if (getInstallTime() < 24 * 3600L) {  // allow to set utm in 1 day since installation.
-                Map<String, String> queries = getQueryParameters(url);
-                setUtmProperties(queries);
-                logUtm(queries);
+                CampaignInfo campaign = CampaignInfo.parse(url);
+                setUtmProperties(campaign);
+                logUtm(campaign);
             }
         } catch (Exception ignored) {
         }
     }
 
     public void setUtmProperties(@NonNull Map<String, String> queries) {
+        setUtmProperties(CampaignInfo.of(queries));
+    }
+
+    public void setUtmProperties(@NonNull CampaignInfo campaign) {
         if (!enabled)
             return;
         try {
-            final String utmSource = queries.get(KEY_CAMPAIGN_UTM_SOURCE);
+            final String utmSource = campaign.getUtmSource();
             if (isValidUtm(utmSource))
                 setUserProperty(KEY_CAMPAIGN_UTM_SOURCE, utmSource);
 
-            final String utmMedium = queries.get(KEY_CAMPAIGN_UTM_MEDIUM);
+            final String utmMedium = campaign.getUtmMedium();
             if (isValidUtm(utmMedium))
                 setUserProperty(KEY_CAMPAIGN_UTM_MEDIUM, utmMedium);
 
-            final String utmCampaign = queries.get(KEY_CAMPAIGN_UTM_CAMPAIGN);
+            final String utmCampaign = campaign.getUtmCampaign();
             if (isValidUtm(utmCampaign))
                 setUserProperty(KEY_CAMPAIGN_UTM_CAMPAIGN, utmCampaign);
+
+            // hand them over now so the backends attach them to the attribution events logged next
+            userProperties.flush();
+            if (state != null)
+                state.setUtm(isValidUtm(utmSource) ? utmSource : null, isValidUtm(utmMedium) ? utmMedium : null,
+                        isValidUtm(utmCampaign) ? utmCampaign : null);
         } catch (Exception ignored) {
         }
     }
 
-    private void logUtm(@NonNull Map<String, String> queries) {
+    private void logUtm(@NonNull CampaignInfo campaign) {
         if (!enabled) {
             return;
         }
 
         try {
-            final String utmSource = queries.get(KEY_CAMPAIGN_UTM_SOURCE);
-            final String utmMedium = queries.get(KEY_CAMPAIGN_UTM_MEDIUM);
-            final String utmCampaign = queries.get(KEY_CAMPAIGN_UTM_CAMPAIGN);
+            final String utmSource = campaign.getUtmSource();
+            final String utmMedium = campaign.getUtmMedium();
+            final String utmCampaign = campaign.getUtmCampaign();
 
             Timber.d("utm_source=%s, utm_campaign=%s, utm_medium=%s", utmSource, utmCampaign, utmMedium);
-            final String utmTerm = queries.get("utm_term");
-            final String keyword = queries.get("keyword");
-            final String campaignId = queries.get("campaignid");
+            final String utmTerm = campaign.getUtmTerm();
+            final String keyword = campaign.getKeyword();
+            final String campaignId = campaign.getCampaignId();
             if (TextUtils.isEmpty(utmSource) && TextUtils.isEmpty(utmMedium) && TextUtils.isEmpty(utmCampaign)) {
                 if (!TextUtils.isEmpty(campaignId)) {
                     logEvent(PLAY_STORE, PLAY_STORE_ATTRIBUTION_KEY, "google.cpc");
@@ -219,33 +1044,6 @@ public class EventLogger {
         return !TextUtils.isEmpty(utm) && !TextUtils.equals(utm, "(not%20set)") && !TextUtils.equals(utm, "(not set)");
     }
 
-    private static Map<String, String> getQueryParameters(@NonNull String query) {
-        if (query.startsWith("http://") || query.startsWith("https://")) {
-            String[] pairs = query.split("\\?");
-            if (pairs.length > 1)
-                query = pairs[1];
-            else
-                query = "";
-        }
-
-        try {
-            query = URLDecoder.decode(query, "UTF-8");
-        } catch (Throwable ignored) {
-        }
-
-        final Map<String, String> params = new HashMap<>();
-        for (String param : query.split("&")) {
-            String pair[] = param.split("=");
-            try {
-                String key = URLDecoder.decode(pair[0], "UTF-8");
-                String value = pair.length > 1 ? URLDecoder.decode(pair[1], "UTF-8") : "";
-                params.put(key, value);
-            } catch (Throwable ignored) {
-            }
-        }
-        return params;
-    }
-
     /**
      * get the time since installation.
      *
@@ -253,57 +1051,52 @@ public class EventLogger {
      */
     public long getInstallTime() {
         long now = System.currentTimeMillis();
-        if (firstLaunchTime == 0L)
-            firstLaunchTime = sharedPreferences.getLong(KEY_FIRST_LAUNCH_DATE, now);
-        if (firstLaunchTime == now)
-            sharedPreferences.edit().putLong(KEY_FIRST_LAUNCH_DATE, now).apply();
+        StateStore state = this.state;
+        long launchTime = state == null ? now : state.getFirstLaunchTime(now);
 
-        return Math.abs((long) ((now - firstLaunchTime) / 1000.));
+        return Math.abs((long) ((now - launchTime) / 1000.));
     }
 
-    private boolean checkRetention(String key) {
-        if (TextUtils.equals(key, KEY_RETENTION_D2)) {
-            if (retentionD2 == null) {
-                retentionD2 = sharedPreferences.getBoolean(KEY_RETENTION_D2, false);
-            }
-            return retentionD2;
-        } else if (TextUtils.equals(key, KEY_RETENTION_W2)) {
-            if (retentionW2 == null) {
-                retentionW2 = sharedPreferences.getBoolean(KEY_RETENTION_D2, false);
-            }
-            return retentionW2;
-        } else if (TextUtils.equals(key, KEY_RETENTION_M2)) {
-            if (retentionM2 == null) {
-                retentionM2 = sharedPreferences.getBoolean(KEY_RETENTION_M2, false);
-            }
-            return retentionM2;
+    /**
+     * @return the utm values of the install campaign, empty if there is none.
+     */
+    @NonNull
+    public CampaignInfo getInstallCampaign() {
+        Map<String, String> values = new HashMap<>();
+        StateStore state = this.state;
+        if (state != null) {
+            if (state.getUtmSource() != null)
+                values.put(KEY_CAMPAIGN_UTM_SOURCE, state.getUtmSource());
+            if (state.getUtmMedium() != null)
+                values.put(KEY_CAMPAIGN_UTM_MEDIUM, state.getUtmMedium());
+            if (state.getUtmCampaign() != null)
+                values.put(KEY_CAMPAIGN_UTM_CAMPAIGN, state.getUtmCampaign());
         }
+        return CampaignInfo.of(values);
+    }
 
-        return false;
+    /**
+     * Set the milestone events, replacing retention_d2, retention_w2 and retention_m2.
+     * Fired milestones are remembered by name, so the list can be reordered and a milestone
+     * named like a fired one, i.e. retention_d2, is not logged again.
+     */
+    public EventLogger setMilestones(@NonNull Milestone... milestones) {
+        milestoneSchedule = new MilestoneSchedule(milestones, clock);
+        return this;
     }
 
-    private void logRetentionEvent() {
-        // log retention event
+    private void logMilestoneEvent() {
+        StateStore state = this.state;
+        MilestoneSchedule schedule = milestoneSchedule;
+        // every milestone is logged, nothing to check on screen transitions
+        if (state == null || schedule.isDone(state.getMilestones(schedule)))
+            return;
         try {
-            long installTime = getInstallTime();
-            if (installTime > 60 * 60 * 24 && installTime <= 60 * 60 * 24 * 2) {
-                if (!checkRetention(KEY_RETENTION_D2)) {
-                    logEvent("retention_d2", null, null);
-                    retentionD2 = true;
-                    sharedPreferences.edit().putBoolean(KEY_RETENTION_D2, true).apply();
-                }
-            } else if (installTime > 60 * 60 * 24 * 7 && installTime <= 60 * 60 * 24 * 14) {
-                if (!checkRetention(KEY_RETENTION_W2)) {
-                    logEvent("retention_w2", null, null);
-                    retentionW2 = true;
-                    sharedPreferences.edit().putBoolean(KEY_RETENTION_W2, true).apply();
-                }
-            } else if (installTime > 60 * 60 * 24 * 30 && installTime <= 60 * 60 * 24 * 60) {
-                if (!checkRetention(KEY_RETENTION_M2)) {
-                    logEvent("retention_m2", null, null);
-                    retentionM2 = true;
-                    sharedPreferences.edit().putBoolean(KEY_RETENTION_M2, true).apply();
-                }
+            long firstLaunchTime = state.getFirstLaunchTime(System.currentTimeMillis());
+            int bit;
+            while ((bit = schedule.next(firstLaunchTime, state.getSessions(), state.getMilestones(schedule))) >= 0) {
+                if (state.claimMilestone(schedule.get(bit).name))
+                    logEvent(schedule.get(bit).name, null, null);
             }
         } catch (Throwable ignored) {
         }
@@ -315,84 +1108,172 @@ public class EventLogger {
      * @param screenName screen name, i.e. fragment class name.
      */
     public void logScreen(@NonNull Activity activity,  @NonNull String screenName) {
-        Timber.d("Log screen view, screen=%s.", screenName);
-        this.screenName = screenName;
-        lastScreenLogTime = System.currentTimeMillis();
+        logScreen(activity, ScreenKey.of(screenName));
+    }
 
-        if (!enabled) return;
+    /**
+     * Enter a screen by its precomputed key.
+     *
+     * @param screenKey key of the screen, see {@link ScreenKey#of(Class)}.
+     */
+    public void logScreen(@NonNull Activity activity, @NonNull ScreenKey screenKey) {
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
+        try {
+            EventTrace trace = this.trace;
+            if (trace != null)
+                trace.record(EventTrace.OP_SCREEN, screenKey.screenName, null, null);
+            screenState.set(new ScreenState(screenKey, clock.elapsedRealtime()));
+
+            if (!enabled) return;
+
+            if (initPolicy == InitPolicy.FIRST_FRAME && firstFrameHooked.compareAndSet(false, true))
+                createLazySinksAfterDraw(activity);
+
+            // session and milestone state is read in the background, never wait for it here
+            StateStore state = this.state;
+            if (state != null) {
+                boolean foreground = inSession.compareAndSet(false, true);
+                MilestoneSchedule schedule = milestoneSchedule;
+                if (foreground || !schedule.isDone(state.getMilestones(schedule)))
+                    state.whenLoaded(foreground ? startSession : checkMilestones);
+            }
 
-        logRetentionEvent();
+            // screen_view event, must be called on the main thread.
+            for (SinkRunner runner : sinks) {
+                runner.setCurrentScreen(activity, screenKey.screenName);
+            }
 
+            Event event = Event.obtain(Event.TYPE_SCREEN, EVENT_NAME_SCREEN)
+                    .category(EVENT_CATEGORY_SCREEN)
+                    .itemName(screenKey.shortScreenName)
+                    .screen(screenKey.screenName);
+            if (isDuplicate(event))
+                event.release();
+            else
+                submit(event);
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_SCREEN, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_SCREEN, start, e);
+            throw e;
+        }
+    }
+
+    public void logScreenPause(final String screenName) {
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                // screen_view event
-                firebaseAnalytics.setCurrentScreen(activity, screenName, null);
-
-                // screen event
-                Bundle bundle = new Bundle();
-                String[] names = screenName.split("\\.");
-                shortScreenName = names[names.length - 1];
-                if (shortScreenName.length() > 36)
-                    shortScreenName = shortScreenName.substring(0, 36);
-                bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, shortScreenName);
-                bundle.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, EVENT_CATEGORY_SCREEN);
-                firebaseAnalytics.logEvent(EVENT_NAME_SCREEN, bundle);
-            }
-        } catch (Exception ignored) {
+            ScreenState current = screenState.get();
+            if (screenName != null && TextUtils.equals(current.screenName, screenName))
+                pauseScreen(current);
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_SCREEN_PAUSE, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_SCREEN_PAUSE, start, e);
+            throw e;
         }
+    }
 
+    /**
+     * Leave a screen entered with {@link #logScreen(Activity, ScreenKey)}.
+     */
+    public void logScreenPause(@NonNull ScreenKey screenKey) {
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (facebookEventsLogger != null && facebookEventLoggable(EVENT_NAME_SCREEN)) {
-                Bundle parameters = new Bundle();
-                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_TYPE, EVENT_CATEGORY_SCREEN);
-                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, screenName);
-                facebookEventsLogger.logEvent(EVENT_NAME_SCREEN, parameters);
-            }
-        } catch (Exception ignored) {
+            ScreenState current = screenState.get();
+            if (current.key == screenKey || TextUtils.equals(current.screenName, screenKey.screenName))
+                pauseScreen(current);
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_SCREEN_PAUSE, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_SCREEN_PAUSE, start, e);
+            throw e;
         }
     }
 
-    public void logScreenPause(final String screenName) {
-        if (TextUtils.equals(this.screenName, screenName)) {
-            long duration = System.currentTimeMillis() - lastScreenLogTime;
-            if (duration > 0 && duration <= 120 * 60 * 1000) // 0 < duration <= 120 minutes
-                logScreenLife(screenName, duration);
-            this.screenName = null;
-            this.lastScreenLogTime = 0L;
+    private void pauseScreen(ScreenState current) {
+        ScreenState paused = current.paused();
+        // only one of the concurrent callers pausing the same screen logs its duration
+        if (!screenState.compareAndSet(current, paused))
+            return;
+        long duration = clock.elapsedRealtime() - current.enterTime;
+        if (duration > 0 && duration <= 120 * 60 * 1000) // 0 < duration <= 120 minutes
+            logScreenLife(current.key, duration);
+        scheduleBackgroundCheck(paused);
+    }
+
+    /**
+     * The app is in the background if no screen is entered shortly after the last one paused.
+     */
+    private void scheduleBackgroundCheck(final ScreenState paused) {
+        Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (screenState.get() == paused)
+                    onBackground();
+            }
+        }, BACKGROUND_DELAY);
+    }
+
+    /**
+     * Called on the scheduler thread when the app goes to the background.
+     */
+    private void onBackground() {
+        Timber.d("App in background, flush pending events.");
+        inSession.set(false);
+        SessionTracker sessions = sessionTracker();
+        if (sessions != null)
+            sessions.onBackground();
+        userProperties.flush();
+        if (aggregator != null)
+            aggregator.flush();
+        drainInbox();
+        flushWhenIdle(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(BACKGROUND_DELAY));
+    }
+
+    /**
+     * Hand the pending batches over and force the journal and the state to disk once the
+     * dispatcher is idle, or at the deadline. Checks again later instead of blocking the scheduler
+     * thread, which also drives the batch timers and the user property flushes.
+     */
+    private void flushWhenIdle(final long deadlineNanos) {
+        EventDispatcher dispatcher = this.dispatcher;
+        if (dispatcher != null && !dispatcher.isIdle() && System.nanoTime() < deadlineNanos) {
+            Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    flushWhenIdle(deadlineNanos);
+                }
+            }, IDLE_CHECK_INTERVAL);
+            return;
         }
+        flushBatches();
+        if (journal != null)
+            journal.sync();
+        if (state != null)
+            state.sync();
     }
 
     /**
      * Leave a screen, with screen lifetime.
      *
-     * @param screenName screen name, i.e. fragment class name.
-     * @param duration   screen duration.
+     * @param screenKey key of the screen.
+     * @param duration  screen duration.
      */
-    private void logScreenLife(final String screenName, final long duration) {
+    private void logScreenLife(final ScreenKey screenKey, final long duration) {
         if (!enabled) return;
 
         if (duration <= 0) return;
-        try {
-            if (firebaseAnalytics != null) {
-                Bundle bundle = new Bundle();
-                String[] names = screenName.split("\\.");
-                bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, names[names.length - 1]);
-                bundle.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, EVENT_CATEGORY_SCREEN_LIFE);
-                bundle.putLong(FirebaseAnalytics.Param.VALUE, duration);
-                firebaseAnalytics.logEvent(EVENT_NAME_SCREEN, bundle);
-            }
-        } catch (Exception ignored) {
-        }
-
-        try {
-            if (facebookEventsLogger != null && facebookEventLoggable(EVENT_NAME_SCREEN)) {
-                Bundle parameters = new Bundle();
-                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_TYPE, EVENT_CATEGORY_SCREEN_LIFE);
-                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, screenName);
-                facebookEventsLogger.logEvent(EVENT_NAME_SCREEN, duration, parameters);
-            }
-        } catch (Exception ignored) {
-        }
+        aggregateOrSubmit(Event.obtain(Event.TYPE_SCREEN_LIFE, EVENT_NAME_SCREEN)
+                .category(EVENT_CATEGORY_SCREEN_LIFE)
+                .itemName(screenKey.lifeScreenName)
+                .screen(screenKey.screenName)
+                .value(duration));
     }
 
     /**
@@ -440,18 +1321,23 @@ public class EventLogger {
      * @param itemName
      */
     public void logPurchase(final @Nullable String category, final @NonNull String itemName) {
-        Timber.d("Log purchase event, category=%s, name=%s", category, itemName);
+        EventTrace trace = this.trace;
+        if (trace != null)
+            trace.record(EventTrace.OP_PURCHASE, category, itemName, null);
         if (!enabled) return;
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                Bundle bundle = new Bundle();
-                if (!TextUtils.isEmpty(category))
-                    bundle.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, category);
-                bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, itemName);
-                firebaseAnalytics.logEvent(FirebaseAnalytics.Event.ECOMMERCE_PURCHASE, bundle);
-            }
-        } catch (Exception ignored) {
+            submit(Event.obtain(Event.TYPE_PURCHASE, FirebaseAnalytics.Event.ECOMMERCE_PURCHASE)
+                    .category(category)
+                    .itemName(itemName));
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_PURCHASE, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_PURCHASE, start, e);
+            throw e;
         }
     }
 
@@ -498,38 +1384,27 @@ public class EventLogger {
      * @param extra extra parameters
      */
     public void logEventValue(final @NonNull String eventName, final @Nullable String category, final @Nullable String itemName, final long value, final Map<String, Object> extra) {
-        boolean extendSession = eventLoggerCallback != null && eventLoggerCallback.needExtendSession(eventName, category);
-        Timber.d("Log event: event name=%s, category=%s, itemName=%s, value=%d, extendSession=%s.", eventName, category, itemName, value, String.valueOf(extendSession));
         if (!enabled) return;
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                Bundle bundle = createBundle(extra);
-
-                if (extendSession) {
-                    bundle.putLong("extend_session", 1);
-                }
-                if (!TextUtils.isEmpty(category))
-                    bundle.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, category);
-                if (!TextUtils.isEmpty(itemName))
-                    bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, itemName);
-                bundle.putLong(FirebaseAnalytics.Param.VALUE, value);
-                firebaseAnalytics.logEvent(eventName, bundle);
-            }
-        } catch (Exception ignored) {
-        }
-
-        try {
-            if (facebookEventsLogger != null && facebookEventLoggable(eventName)) {
-                Bundle parameters = createBundle(extra);
-
-                if (!TextUtils.isEmpty(category))
-                    parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_TYPE, category);
-                if (!TextUtils.isEmpty(itemName))
-                    parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, itemName);
-                facebookEventsLogger.logEvent(eventName, value, parameters);
-            }
-        } catch (Exception ignored) {
+            boolean extendSession = needExtendSession(eventName, category);
+            EventTrace trace = this.trace;
+            if (trace != null)
+                trace.event(eventName, category, itemName, true, value, extendSession);
+            govern(Event.obtain(eventName)
+                    .category(category)
+                    .itemName(itemName)
+                    .value(value)
+                    .extendSession(extendSession)
+                    .putAll(extra));
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_EVENT_VALUE, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_EVENT_VALUE, start, e);
+            throw e;
         }
     }
 
@@ -542,93 +1417,226 @@ public class EventLogger {
      * @param isItem   should use item id or not to send the event.
      */
     private void logEvent(final @NonNull String eventName, final @Nullable String category, final @Nullable String itemName, final Map<String, Object> extra, boolean isItem) {
-        boolean extendSession = eventLoggerCallback != null && eventLoggerCallback.needExtendSession(eventName, category);
-        Timber.d("Log event: event name=%s, category=%s, %s=%s, extendSession=%s", eventName, category, isItem ? "itemId" : "itemName", itemName, String.valueOf(extendSession));
         if (!enabled) return;
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                Bundle bundle = createBundle(extra);
+            boolean extendSession = needExtendSession(eventName, category);
+            EventTrace trace = this.trace;
+            if (trace != null)
+                trace.event(eventName, category, itemName, false, 0L, extendSession);
+            govern(Event.obtain(eventName)
+                    .category(category)
+                    .itemName(itemName)
+                    .screen(TextUtils.equals(eventName, EVENT_NAME_USER_ACTION) ? screenState.get().shortScreenName : null)
+                    .extendSession(extendSession)
+                    .putAll(extra));
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG_EVENT, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG_EVENT, start, e);
+            throw e;
+        }
+    }
 
-                if (extendSession) {
-                    bundle.putLong("extend_session", 1);
-                }
-                if (!TextUtils.isEmpty(category))
-                    bundle.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, category);
-                if (TextUtils.equals(eventName, EVENT_NAME_USER_ACTION) && !TextUtils.isEmpty(shortScreenName)) {
-                    bundle.putString("screen", shortScreenName);
-                }
-                if (!TextUtils.isEmpty(itemName))
-                    bundle.putString(isItem ? FirebaseAnalytics.Param.ITEM_ID : FirebaseAnalytics.Param.ITEM_NAME, itemName);
-                firebaseAnalytics.logEvent(eventName, bundle);
-            }
-        } catch (Exception ignored) {
+    /**
+     * Log an event built with {@link Event#obtain(String)}, i.e.
+     * <pre>
+     * EventLogger.getInstance().log(Event.obtain("play").category("player").putLong("position", position));
+     * </pre>
+     * The event is recycled once dispatched and must not be used afterwards.
+     *
+     * @param event event to log.
+     */
+    public void log(final @NonNull Event event) {
+        if (!enabled) {
+            event.release();
+            return;
         }
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (facebookEventsLogger != null && facebookEventLoggable(eventName)) {
-                Bundle parameters = createBundle(extra);
+            final String eventName = event.getName();
+            final String category = event.getCategory();
+            boolean extendSession = needExtendSession(eventName, category);
+            EventTrace trace = this.trace;
+            if (trace != null)
+                trace.event(eventName, category, event.getItemName(), event.hasValue(), event.getValue(), extendSession);
+            event.extendSession(extendSession);
+            if (TextUtils.equals(eventName, EVENT_NAME_USER_ACTION))
+                event.screen(screenState.get().shortScreenName);
+            govern(event);
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_LOG, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_LOG, start, e);
+            throw e;
+        }
+    }
 
-                if (!TextUtils.isEmpty(category))
-                    parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_TYPE, category);
-                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, itemName);
-                facebookEventsLogger.logEvent(eventName, parameters);
-            }
-        } catch (Exception ignored) {
+    private boolean needExtendSession(@Nullable String eventName, @Nullable String category) {
+        ExtendSessionCache cache = extendSessionCache;
+        return cache != null && eventName != null && cache.needExtendSession(eventName, category);
+    }
+
+    /**
+     * Forget the answers of {@link EventLoggerCallback#needExtendSession(String, String)}, which are
+     * asked once per event name and category. Call it when the callback would answer differently.
+     */
+    public void invalidateExtendSession() {
+        EventLoggerCallback callback = eventLoggerCallback;
+        extendSessionCache = callback != null ? new ExtendSessionCache(callback) : null;
+    }
+
+    private boolean isDuplicate(@NonNull Event event) {
+        EventDeduplicator deduplicator = this.deduplicator;
+        return deduplicator != null && deduplicator.isDuplicate(event);
+    }
+
+    /**
+     * Apply the rate limits and the schema to an event and submit it if it is not suppressed.
+     */
+    private void govern(@NonNull Event event) {
+        if (isDuplicate(event)) {
+            event.release();
+            return;
+        }
+        EventGovernor governor = this.governor;
+        if (governor != null && !governor.admit(event, samplingKey())) {
+            event.release();
+            return;
         }
+        EventValidator validator = this.validator;
+        if (validator != null && !validator.validate(event, sessions != null)) {
+            SinkMetrics metrics = callerMetrics;
+            if (metrics != null)
+                metrics.callFailed(EventValidator.DroppedEventException.INSTANCE);
+            event.release();
+            return;
+        }
+        aggregateOrSubmit(event);
     }
 
-    private Bundle createBundle(final Map<String, Object> extra) {
-        Bundle parameters = new Bundle();
-        if (extra != null) {
-            for (String k: extra.keySet()) {
-                Object v = extra.get(k);
-                if (v instanceof String)
-                    parameters.putString(k, (String)v);
-                else if (v instanceof Long)
-                    parameters.putLong(k, (Long)v);
-                else if (v instanceof Integer)
-                    parameters.putInt(k, (Integer)v);
-                else if (v instanceof Float)
-                    parameters.putFloat(k, (Float)v);
-                else if (v instanceof Double)
-                    parameters.putDouble(k, (Double)v);
-                else
-                    Timber.d("FacebookAnalytics: Ignore event property %s", k);
-            }
+    /**
+     * Fold the event into its summary if it is aggregated, otherwise submit it.
+     */
+    private void aggregateOrSubmit(@NonNull Event event) {
+        EventAggregator aggregator = this.aggregator;
+        if (aggregator != null && aggregator.add(event)) {
+            event.release();
+            return;
         }
-        return parameters;
+        submit(event);
     }
 
     /**
-     * Set user property.
+     * @return hash of the user id, or of the first launch time before the user id is known.
+     */
+    private long samplingKey() {
+        long key = samplingKey;
+        // until the state is read events are sampled together
+        if (key == 0L && state != null && state.isLoaded()) {
+            key = EventGovernor.mix(state.getFirstLaunchTime(System.currentTimeMillis()));
+            samplingKey = key;
+        }
+        return key;
+    }
+
+    /**
+     * Hand the event to the dispatcher, or dispatch it right away when async dispatching is disabled.
+     * Takes over the caller's reference to the event.
+     */
+    private void submit(@NonNull Event event) {
+        SessionTracker sessions = this.sessions;
+        // events of other processes come stamped
+        if (sessions != null && event.getType() <= Event.TYPE_PURCHASE && event.getSessionSeq() == 0L)
+            sessions.stamp(event);
+        ProcessRing outbox = this.outbox;
+        if (outbox != null) {
+            outbox.offer(event);
+            event.release();
+            return;
+        }
+        if (journal != null)
+            journal.append(event);
+
+        if (dispatcher != null) {
+            dispatcher.enqueue(event);
+        } else {
+            dispatch(event);
+            event.release();
+        }
+    }
+
+    /**
+     * Hand an event to every backend. User properties every backend accepted are persisted once
+     * the backends are done with them, so dropped ones are sent again.
+     */
+    private void dispatch(@NonNull Event event) {
+        boolean accepted = true;
+        for (SinkRunner runner : sinks) {
+            if (!dispatch(runner, event))
+                accepted = false;
+        }
+        // the caller still holds a reference, so the event can not be recycled before this
+        if (accepted && event.getType() == Event.TYPE_USER_PROPERTIES)
+            event.propertyStore = userProperties;
+    }
+
+    /**
+     * Hand an event to a backend.
+     *
+     * @return false if the backend rejected user properties.
+     */
+    private boolean dispatch(@NonNull SinkRunner runner, @NonNull Event event) {
+        switch (event.getType()) {
+            case Event.TYPE_USER_PROPERTY:
+                runner.setUserProperty(event.getName(), event.getItemName());
+                break;
+            case Event.TYPE_USER_ID:
+                runner.setUserId(event.getItemName());
+                break;
+            case Event.TYPE_USER_PROPERTIES:
+                Map<String, String> properties = new HashMap<>();
+                for (int i = 0; i < event.getParamCount(); i++) {
+                    properties.put(event.getParamKey(i), event.getString(i));
+                }
+                return runner.setUserProperties(properties, event);
+            default:
+                runner.deliver(event);
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Set user property. Unchanged values are skipped, changes made within a second of each
+     * other are handed to the backends together. Call {@link #flush()} to hand them over before
+     * logging events the backends should attach them to.
      *
      * @param key   property name.
      * @param value property value.
      */
     public void setUserProperty(final @NonNull String key, final @Nullable String value) {
-        Timber.d("Log event: set user property %s=%s", key, value);
+        EventTrace trace = this.trace;
+        if (trace != null)
+            trace.record(EventTrace.OP_USER_PROPERTY, key, value, null);
         if (!enabled) return;
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                firebaseAnalytics.setUserProperty(key, value);
-            }
-        } catch (Throwable ignored) {
-        }
-
-        try {
-            if (facebookEventsLogger != null) {
-                Bundle parameters = new Bundle();
-                parameters.putString(key, value);
-                AppEventsLogger.updateUserProperties(parameters, new GraphRequest.Callback() {
-                    @Override
-                    public void onCompleted(GraphResponse response) {
-                        Timber.d("User properties updated: %s=%s", key, value);
-                    }
-                });
-            }
-        } catch (Throwable ignored) {
+            userProperties.set(key, value);
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_SET_USER_PROPERTY, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_SET_USER_PROPERTY, start, e);
+            throw e;
         }
     }
 
@@ -638,25 +1646,37 @@ public class EventLogger {
      * @param userId user id. null to remove the user id from event logger.
      */
     public void setUserId(final String userId) {
-        Timber.d("Log event: set user id=%s", userId);
+        EventTrace trace = this.trace;
+        if (trace != null)
+            trace.record(EventTrace.OP_USER_ID, userId, null, null);
         if (!enabled) return;
 
+        final SinkMetrics metrics = callerMetrics;
+        final long start = metrics == null ? 0L : metrics.begin();
         try {
-            if (firebaseAnalytics != null) {
-                firebaseAnalytics.setUserId(userId);
-            }
-        } catch (Throwable ignored) {
-        }
-
-        try {
-            if (facebookEventsLogger != null) {
-                AppEventsLogger.setUserID(userId);
-            }
-        } catch (Throwable ignored) {
+            samplingKey = EventGovernor.samplingKey(userId);
+
+            submit(Event.obtain(Event.TYPE_USER_ID, null).itemName(userId));
+            if (metrics != null)
+                metrics.finish(SinkMetrics.CALL_SET_USER_ID, start);
+        } catch (RuntimeException e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.CALL_SET_USER_ID, start, e);
+            throw e;
         }
     }
 
     public interface EventLoggerCallback {
+        /**
+         * Asked once per event name and category, see {@link #invalidateExtendSession()}.
+         */
         boolean needExtendSession(String eventName, String category);
     }
+
+    public interface MetricsListener {
+        /**
+         * Called on a background thread with the metrics since they were enabled.
+         */
+        void onMetrics(@NonNull MetricsSnapshot snapshot);
+    }
 }
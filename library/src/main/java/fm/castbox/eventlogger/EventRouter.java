@@ -0,0 +1,195 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * {@link RoutingRules} compiled into flat lookup tables: open addressing hash tables for exact
+ * event names and categories, and a trie for prefixes. Immutable, so it can be swapped at runtime
+ * with a single volatile write.
+ */
+final class EventRouter {
+
+    // per thread xorshift state for sampling, so the logging threads do not contend on a shared Random
+    private static final ThreadLocal<long[]> seeds = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[]{EventGovernor.mix(System.nanoTime() ^ Thread.currentThread().getId()) | 1L};
+        }
+    };
+
+    private final StringTable names;
+    private final StringTable categories;
+    private final TrieNode prefixes;
+    private final boolean hasAllowRules;
+
+    private EventRouter(RoutingRules rules) {
+        names = new StringTable(rules.names, rules.sampleRates);
+        categories = new StringTable(rules.categories, null);
+        prefixes = TrieNode.build(rules.prefixes);
+        // an empty allow list allows nothing
+        hasAllowRules = rules.hasAllowList;
+    }
+
+    @NonNull
+    static EventRouter compile(@NonNull RoutingRules rules) {
+        return new EventRouter(rules);
+    }
+
+    /**
+     * @return true if the event should be handed to the sink.
+     */
+    boolean accept(@Nullable String eventName, @Nullable String category) {
+        int flags = 0;
+        int slot = -1;
+        if (eventName != null) {
+            slot = names.indexOf(eventName);
+            if (slot >= 0)
+                flags |= names.flags[slot];
+            flags |= prefixes.match(eventName);
+        }
+        if (category != null) {
+            int categorySlot = categories.indexOf(category);
+            if (categorySlot >= 0)
+                flags |= categories.flags[categorySlot];
+        }
+
+        if ((flags & RoutingRules.DENY) != 0)
+            return false;
+        if (hasAllowRules && (flags & RoutingRules.ALLOW) == 0)
+            return false;
+        if (slot >= 0) {
+            float rate = names.rates[slot];
+            if (rate < 1f)
+                return nextFloat() < rate;
+        }
+        return true;
+    }
+
+    /**
+     * @return uniform in [0, 1), from the state of the calling thread.
+     */
+    private static float nextFloat() {
+        long[] seed = seeds.get();
+        long x = seed[0];
+        x ^= x << 13;
+        x ^= x >>> 7;
+        x ^= x << 17;
+        seed[0] = x;
+        return (x >>> 40) * 0x1.0p-24f;
+    }
+
+    /**
+     * Open addressing, linear probing hash table keyed by string.
+     */
+    private static final class StringTable {
+        final String[] keys;
+        final int[] flags;
+        final float[] rates;
+        final int mask;
+
+        StringTable(Map<String, Integer> rules, @Nullable Map<String, Float> sampleRates) {
+            int size = rules.size() + (sampleRates == null ? 0 : sampleRates.size());
+            int capacity = 4;
+            while (capacity < size * 2)
+                capacity <<= 1;
+            keys = new String[capacity];
+            flags = new int[capacity];
+            rates = new float[capacity];
+            Arrays.fill(rates, 1f);
+            mask = capacity - 1;
+
+            for (Map.Entry<String, Integer> rule : rules.entrySet()) {
+                flags[slot(rule.getKey())] |= rule.getValue();
+            }
+            if (sampleRates != null) {
+                for (Map.Entry<String, Float> rule : sampleRates.entrySet()) {
+                    rates[slot(rule.getKey())] = rule.getValue();
+                }
+            }
+        }
+
+        private int slot(String key) {
+            int i = spread(key.hashCode()) & mask;
+            while (keys[i] != null && !keys[i].equals(key))
+                i = (i + 1) & mask;
+            keys[i] = key.intern();
+            return i;
+        }
+
+        int indexOf(String key) {
+            int i = spread(key.hashCode()) & mask;
+            String k;
+            while ((k = keys[i]) != null) {
+                if (k == key || k.equals(key))
+                    return i;
+                i = (i + 1) & mask;
+            }
+            return -1;
+        }
+
+        private static int spread(int h) {
+            return h ^ (h >>> 16);
+        }
+    }
+
+    /**
+     * Prefix trie, children sorted by character for binary search.
+     */
+    private static final class TrieNode {
+        char[] chars = new char[0];
+        TrieNode[] children = new TrieNode[0];
+        int flags;
+
+        static TrieNode build(Map<String, Integer> prefixes) {
+            TrieNode root = new TrieNode();
+            for (Map.Entry<String, Integer> rule : prefixes.entrySet()) {
+                TrieNode node = root;
+                String prefix = rule.getKey();
+                for (int i = 0; i < prefix.length(); i++) {
+                    node = node.child(prefix.charAt(i));
+                }
+                node.flags |= rule.getValue();
+            }
+            return root;
+        }
+
+        private TrieNode child(char c) {
+            int i = Arrays.binarySearch(chars, c);
+            if (i >= 0)
+                return children[i];
+            i = -i - 1;
+            TrieNode node = new TrieNode();
+            char[] newChars = new char[chars.length + 1];
+            TrieNode[] newChildren = new TrieNode[children.length + 1];
+            System.arraycopy(chars, 0, newChars, 0, i);
+            System.arraycopy(children, 0, newChildren, 0, i);
+            newChars[i] = c;
+            newChildren[i] = node;
+            System.arraycopy(chars, i, newChars, i + 1, chars.length - i);
+            System.arraycopy(children, i, newChildren, i + 1, children.length - i);
+            chars = newChars;
+            children = newChildren;
+            return node;
+        }
+
+        /**
+         * @return flags of every prefix of the name.
+         */
+        int match(String name) {
+            int result = flags;
+            TrieNode node = this;
+            for (int i = 0; i < name.length() && node.chars.length > 0; i++) {
+                int index = Arrays.binarySearch(node.chars, name.charAt(i));
+                if (index < 0)
+                    break;
+                node = node.children[index];
+                result |= node.flags;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Declared events and their parameters, checked before events reach any backend, i.e.
+ * <pre>
+ * new EventSchema()
+ *         .param("play_progress", "episode_id", Event.PARAM_STRING)
+ *         .param("play_progress", "position", Event.PARAM_LONG)
+ *         .event("app_rate")
+ *         .strict(true);
+ * </pre>
+ * Every event is held to the firebase limits: names of at most 40 letters, digits or underscores
+ * starting with a letter, at most 25 parameters, counting the ones the backends add such as the
+ * session stamp, and string values of at most 100 chars. Values
+ * of declared parameters are converted to the declared type. Too long values are truncated,
+ * events with an invalid name are dropped, and each violation is counted, see
+ * {@link EventLogger#getSchemaViolationCounts()}.
+ * <p>
+ * In strict mode undeclared events and parameters are dropped, otherwise they are only counted.
+ */
+public final class EventSchema {
+
+    public static final int MAX_NAME_LENGTH = 40;
+    public static final int MAX_PARAMS = 25;
+    public static final int MAX_VALUE_LENGTH = 100;
+
+    // declared parameter types by key by event name
+    final Map<String, Map<String, Integer>> events = new LinkedHashMap<>();
+    boolean strict;
+    int maxParams = MAX_PARAMS;
+    int maxValueLength = MAX_VALUE_LENGTH;
+
+    /**
+     * Declare an event without parameters.
+     */
+    public EventSchema event(@NonNull String eventName) {
+        params(eventName);
+        return this;
+    }
+
+    /**
+     * Declare a parameter of an event, the event is declared with it.
+     *
+     * @param type one of the PARAM_ constants of {@link Event}.
+     */
+    public EventSchema param(@NonNull String eventName, @NonNull String key, int type) {
+        if (!EventValidator.isValidName(key))
+            throw new IllegalArgumentException("Invalid parameter name " + key);
+        if (type < Event.PARAM_STRING || type > Event.PARAM_FLOAT)
+            throw new IllegalArgumentException("Invalid parameter type " + type);
+        params(eventName).put(key, type);
+        return this;
+    }
+
+    /**
+     * @param strict drop undeclared events and parameters instead of only counting them.
+     */
+    public EventSchema strict(boolean strict) {
+        this.strict = strict;
+        return this;
+    }
+
+    /**
+     * @param maxParams parameters kept per event, counting the ones the logger adds such as
+     *                  item_category, item_name and value.
+     */
+    public EventSchema maxParams(int maxParams) {
+        if (maxParams <= 0)
+            throw new IllegalArgumentException("Max params must be positive");
+        this.maxParams = maxParams;
+        return this;
+    }
+
+    /**
+     * @param maxValueLength chars kept of string values, item names and categories.
+     */
+    public EventSchema maxValueLength(int maxValueLength) {
+        if (maxValueLength <= 0)
+            throw new IllegalArgumentException("Max value length must be positive");
+        this.maxValueLength = maxValueLength;
+        return this;
+    }
+
+    private Map<String, Integer> params(String eventName) {
+        if (!EventValidator.isValidName(eventName))
+            throw new IllegalArgumentException("Invalid event name " + eventName);
+        Map<String, Integer> params = events.get(eventName);
+        if (params == null) {
+            params = new LinkedHashMap<>();
+            events.put(eventName, params);
+        }
+        return params;
+    }
+}
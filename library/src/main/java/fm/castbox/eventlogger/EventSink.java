@@ -0,0 +1,69 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Analytics backend. Every log call is normalized once into an {@link Event} and handed to all
+ * registered sinks, see {@link EventLogger#addEventSink(EventSink)}.
+ * <p>
+ * Extend {@link AbstractEventSink} instead of implementing this interface directly.
+ */
+public interface EventSink {
+
+    /**
+     * Sink is called on the dispatcher thread, or on the caller thread when async dispatching is disabled.
+     * Batches flushed by age are delivered on the scheduler thread.
+     */
+    int THREAD_DISPATCHER = 0;
+    /**
+     * Sink is called on a background thread of its own, so a slow sink does not hold up the others.
+     */
+    int THREAD_BACKGROUND = 1;
+
+    /**
+     * @return unique sink name.
+     */
+    @NonNull
+    String getName();
+
+    /**
+     * @return {@link #THREAD_DISPATCHER} or {@link #THREAD_BACKGROUND}.
+     */
+    int getThreadMode();
+
+    /**
+     * @return true to receive events through {@link #logEvents(List)}, false to receive them one by one
+     * through {@link #logEvent(Event)}.
+     */
+    boolean isBatching();
+
+    /**
+     * @return when pending events are delivered to a batching sink.
+     */
+    @NonNull
+    BatchPolicy getBatchPolicy();
+
+    void logEvent(@NonNull Event event);
+
+    void logEvents(@NonNull List<Event> events);
+
+    void setUserProperty(@NonNull String key, @Nullable String value);
+
+    /**
+     * Set the user properties changed within a short time at once.
+     */
+    void setUserProperties(@NonNull Map<String, String> properties);
+
+    void setUserId(@Nullable String userId);
+
+    /**
+     * Called on the thread calling {@link EventLogger#logScreen(Activity, String)}, mostly the main thread.
+     */
+    void setCurrentScreen(@NonNull Activity activity, @NonNull String screenName);
+}
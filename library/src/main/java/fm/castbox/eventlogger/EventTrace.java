@@ -0,0 +1,171 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import timber.log.Timber;
+
+/**
+ * In-memory ring of the last log calls for debug screens and bug reports. Recording stores the
+ * call arguments as they are, a few array writes without locks or allocation; they are only
+ * formatted when the trace is dumped or forwarded to Timber.
+ * <p>
+ * Writers claim a slot from a counter and stamp it with their sequence number once written, a
+ * reader skips the slots overwritten while it reads them.
+ */
+final class EventTrace {
+
+    static final int OP_EVENT = 0;
+    static final int OP_SCREEN = 1;
+    static final int OP_PURCHASE = 2;
+    static final int OP_USER_PROPERTY = 3;
+    static final int OP_USER_ID = 4;
+
+    private static final int FLAG_HAS_VALUE = 1;
+    private static final int FLAG_EXTEND_SESSION = 1 << 1;
+    // stamp of a slot being written
+    private static final long WRITING = -1L;
+
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray stamps;
+    private final long[] times;
+    private final int[] ops;
+    private final int[] flags;
+    private final long[] values;
+    private final String[] first;
+    private final String[] second;
+    private final String[] third;
+    // next sequence number forwarded to Timber, only used on the scheduler thread
+    private long forwarded;
+
+    /**
+     * @param capacity number of calls kept, rounded up to a power of two.
+     */
+    EventTrace(int capacity) {
+        int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        mask = size - 1;
+        stamps = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            stamps.set(i, WRITING);
+        }
+        times = new long[size];
+        ops = new int[size];
+        flags = new int[size];
+        values = new long[size];
+        first = new String[size];
+        second = new String[size];
+        third = new String[size];
+    }
+
+    void event(@Nullable String name, @Nullable String category, @Nullable String itemName,
+               boolean hasValue, long value, boolean extendSession) {
+        record(OP_EVENT, name, category, itemName, (hasValue ? FLAG_HAS_VALUE : 0) | (extendSession ? FLAG_EXTEND_SESSION : 0), value);
+    }
+
+    void record(int op, @Nullable String a, @Nullable String b, @Nullable String c) {
+        record(op, a, b, c, 0, 0L);
+    }
+
+    private void record(int op, String a, String b, String c, int flag, long value) {
+        long seq = next.getAndIncrement();
+        int i = (int) seq & mask;
+        stamps.set(i, WRITING);
+        times[i] = System.currentTimeMillis();
+        ops[i] = op;
+        flags[i] = flag;
+        values[i] = value;
+        first[i] = a;
+        second[i] = b;
+        third[i] = c;
+        stamps.set(i, seq);
+    }
+
+    /**
+     * @return the kept calls, oldest first.
+     */
+    @NonNull
+    List<String> dump() {
+        long end = next.get();
+        long start = Math.max(0L, end - mask - 1);
+        List<String> lines = new ArrayList<>((int) (end - start));
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        for (long seq = start; seq < end; seq++) {
+            if (format(seq, format, sb))
+                lines.add(sb.toString());
+        }
+        return lines;
+    }
+
+    /**
+     * Log the calls recorded since the last call to Timber.
+     */
+    void forward() {
+        long end = next.get();
+        long start = Math.max(forwarded, end - mask - 1);
+        if (start > forwarded)
+            Timber.d("%d trace entries overwritten before they were logged", start - forwarded);
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss.SSS", Locale.US);
+        StringBuilder sb = new StringBuilder();
+        long seq = start;
+        // stop at a call still being written, it is logged next time
+        for (; seq < end && stamps.get((int) seq & mask) != WRITING; seq++) {
+            if (format(seq, format, sb))
+                Timber.d("%s", sb);
+        }
+        forwarded = seq;
+    }
+
+    /**
+     * Format a call into the builder.
+     *
+     * @return false if the slot is being written or holds a newer call.
+     */
+    private boolean format(long seq, SimpleDateFormat format, StringBuilder sb) {
+        int i = (int) seq & mask;
+        if (stamps.get(i) != seq)
+            return false;
+        long time = times[i];
+        int op = ops[i];
+        int flag = flags[i];
+        long value = values[i];
+        String a = first[i];
+        String b = second[i];
+        String c = third[i];
+        if (stamps.get(i) != seq)
+            return false;
+
+        sb.setLength(0);
+        sb.append(format.format(new Date(time))).append(' ');
+        switch (op) {
+            case OP_EVENT:
+                sb.append("Log event: event name=").append(a).append(", category=").append(b).append(", itemName=").append(c);
+                if ((flag & FLAG_HAS_VALUE) != 0)
+                    sb.append(", value=").append(value);
+                sb.append(", extendSession=").append((flag & FLAG_EXTEND_SESSION) != 0);
+                break;
+            case OP_SCREEN:
+                sb.append("Log screen view, screen=").append(a);
+                break;
+            case OP_PURCHASE:
+                sb.append("Log purchase event, category=").append(a).append(", name=").append(b);
+                break;
+            case OP_USER_PROPERTY:
+                sb.append("Log event: set user property ").append(a).append('=').append(b);
+                break;
+            case OP_USER_ID:
+                sb.append("Log event: set user id=").append(a);
+                break;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,323 @@
+package fm.castbox.eventlogger;
+
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * {@link EventSchema} compiled for the logging threads. Each declared event becomes a rule with
+ * flat arrays of its parameter keys and types; the verdict on an undeclared name is computed once
+ * and cached the same way. Checking an event is one pass over its parameters which truncates,
+ * converts or removes them in place, without locks.
+ */
+final class EventValidator {
+
+    static final int UNDECLARED_EVENT = 0;
+    static final int INVALID_NAME = 1;
+    static final int UNDECLARED_PARAM = 2;
+    static final int INVALID_PARAM = 3;
+    static final int TOO_MANY_PARAMS = 4;
+    static final int TRUNCATED = 5;
+    static final int COERCED = 6;
+    static final int INVALID_VALUE = 7;
+    private static final String[] VIOLATIONS = {"undeclared_event", "invalid_name", "undeclared_param",
+            "invalid_param", "too_many_params", "truncated", "coerced", "invalid_value"};
+    private static final int NONE = -1;
+
+    private static final String[] RESERVED_PREFIXES = {"firebase_", "google_", "ga_"};
+
+    // undeclared names with a cached verdict, the violations of later names are counted together
+    static final int MAX_RULES = 1024;
+    private static final String OTHER = "other";
+
+    private final boolean strict;
+    private final int maxParams;
+    private final int maxValueLength;
+    private final Map<String, Rule> declared = new HashMap<>();
+    private final ConcurrentHashMap<String, Rule> undeclared = new ConcurrentHashMap<>();
+    private final AtomicInteger undeclaredSize = new AtomicInteger();
+    private final AtomicLongArray otherCounts = new AtomicLongArray(VIOLATIONS.length);
+
+    private EventValidator(EventSchema schema) {
+        strict = schema.strict;
+        maxParams = schema.maxParams;
+        maxValueLength = schema.maxValueLength;
+        for (Map.Entry<String, Map<String, Integer>> event : schema.events.entrySet()) {
+            Map<String, Integer> params = event.getValue();
+            String[] keys = new String[params.size()];
+            int[] types = new int[params.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> param : params.entrySet()) {
+                keys[i] = param.getKey();
+                types[i] = param.getValue();
+                i++;
+            }
+            declared.put(event.getKey(), new Rule(event.getKey(), NONE, keys, types, new AtomicLongArray(VIOLATIONS.length)));
+        }
+    }
+
+    /**
+     * Reported to the caller metrics for an event the schema drops, never thrown.
+     */
+    static final class DroppedEventException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        static final DroppedEventException INSTANCE = new DroppedEventException();
+
+        private DroppedEventException() {
+            super("Event dropped by the schema", null, false, false);
+        }
+    }
+
+    @NonNull
+    static EventValidator compile(@NonNull EventSchema schema) {
+        return new EventValidator(schema);
+    }
+
+    /**
+     * Bring an event within the schema and the limits.
+     *
+     * @param sessions true if sessions are enabled, the backends then add the session stamp.
+     * @return false if the event must be dropped.
+     */
+    boolean validate(@NonNull Event event, boolean sessions) {
+        String name = event.getName();
+        if (name == null)
+            return true;
+        Rule rule = rule(name);
+        if (rule.drop != NONE) {
+            rule.counts.incrementAndGet(rule.drop);
+            return false;
+        }
+        if (rule.keys == null)
+            rule.counts.incrementAndGet(UNDECLARED_EVENT);
+
+        event.category(truncate(event.getCategory(), rule));
+        event.itemName(truncate(event.getItemName(), rule));
+        event.screen(truncate(event.getScreen(), rule));
+        int params = builtinParams(event, sessions);
+        for (int i = 0; i < event.getParamCount(); ) {
+            String key = event.getParamKey(i);
+            int violation = NONE;
+            // counted with the builtin parameters
+            if (!key.equals(EventGovernor.PARAM_SAMPLING_WEIGHT)) {
+                int type = rule.typeOf(key);
+                if (type != NONE) {
+                    violation = coerce(event, i, type);
+                    if (violation == COERCED)
+                        rule.counts.incrementAndGet(COERCED);
+                } else {
+                    if (rule.keys != null) {
+                        rule.counts.incrementAndGet(UNDECLARED_PARAM);
+                        if (strict)
+                            violation = UNDECLARED_PARAM;
+                    }
+                    if (violation == NONE && !isValidName(key))
+                        violation = INVALID_PARAM;
+                }
+                if (violation == NONE && ++params > maxParams)
+                    violation = TOO_MANY_PARAMS;
+            }
+            if (violation == NONE || violation == COERCED) {
+                if (event.getParamType(i) == Event.PARAM_STRING) {
+                    String value = event.getString(i);
+                    String truncated = truncate(value, rule);
+                    if (truncated != value)
+                        event.setParam(i, Event.PARAM_STRING, 0L, 0.0, truncated);
+                }
+                i++;
+            } else {
+                if (violation != UNDECLARED_PARAM)
+                    rule.counts.incrementAndGet(violation);
+                event.removeParam(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return violations since the schema was set by event name and violation, i.e.
+     * "play_progress/truncated". Events past the first {@link #MAX_RULES} undeclared names are
+     * counted as "other".
+     */
+    @NonNull
+    Map<String, Long> getViolationCounts() {
+        Map<String, Long> result = new HashMap<>();
+        for (Rule rule : declared.values()) {
+            putCounts(result, rule.name, rule.counts);
+        }
+        for (Rule rule : undeclared.values()) {
+            putCounts(result, rule.name, rule.counts);
+        }
+        putCounts(result, OTHER, otherCounts);
+        return result;
+    }
+
+    private static void putCounts(Map<String, Long> result, String name, AtomicLongArray counts) {
+        for (int i = 0; i < VIOLATIONS.length; i++) {
+            long count = counts.get(i);
+            if (count > 0)
+                result.put(name + "/" + VIOLATIONS[i], count);
+        }
+    }
+
+    private Rule rule(String name) {
+        Rule rule = declared.get(name);
+        if (rule != null)
+            return rule;
+        rule = undeclared.get(name);
+        if (rule != null)
+            return rule;
+        int drop = !isValidName(name) ? INVALID_NAME : strict ? UNDECLARED_EVENT : NONE;
+        if (undeclaredSize.get() >= MAX_RULES)
+            return new Rule(OTHER, drop, null, null, otherCounts);
+        Rule created = new Rule(name, drop, null, null, new AtomicLongArray(VIOLATIONS.length));
+        rule = undeclared.putIfAbsent(name, created);
+        if (rule != null)
+            return rule;
+        undeclaredSize.incrementAndGet();
+        return created;
+    }
+
+    private String truncate(@Nullable String value, Rule rule) {
+        if (value == null || value.length() <= maxValueLength)
+            return value;
+        rule.counts.incrementAndGet(TRUNCATED);
+        return value.substring(0, maxValueLength);
+    }
+
+    /**
+     * @return parameters the backends add for the fields of an event and its session stamp, and
+     * the sampling weight the governor added.
+     */
+    private static int builtinParams(Event event, boolean sessions) {
+        // session id and sequence number
+        int count = sessions ? 2 : 0;
+        if (event.indexOf(EventGovernor.PARAM_SAMPLING_WEIGHT) >= 0)
+            count++;
+        if (!TextUtils.isEmpty(event.getCategory()))
+            count++;
+        if (!TextUtils.isEmpty(event.getItemName()))
+            count++;
+        if (!TextUtils.isEmpty(event.getScreen()))
+            count++;
+        if (event.hasValue())
+            count++;
+        if (event.isExtendSession())
+            count++;
+        return count;
+    }
+
+    /**
+     * Convert a parameter to its declared type.
+     *
+     * @return {@link #COERCED} if the value was converted, {@link #INVALID_VALUE} if it can not be.
+     */
+    private static int coerce(Event event, int index, int type) {
+        int kind = event.getParamType(index);
+        if (kind == type)
+            return NONE;
+        boolean integral = kind == Event.PARAM_LONG || kind == Event.PARAM_INT;
+        switch (type) {
+            case Event.PARAM_STRING:
+                event.setParam(index, type, 0L, 0.0, integral
+                        ? Long.toString(event.getLong(index)) : Double.toString(event.getDouble(index)));
+                return COERCED;
+            case Event.PARAM_LONG:
+            case Event.PARAM_INT:
+                long l;
+                if (integral) {
+                    l = event.getLong(index);
+                } else if (kind == Event.PARAM_STRING) {
+                    try {
+                        l = Long.parseLong(String.valueOf(event.getString(index)).trim());
+                    } catch (NumberFormatException e) {
+                        return INVALID_VALUE;
+                    }
+                } else {
+                    double d = event.getDouble(index);
+                    if (Double.isNaN(d) || Double.isInfinite(d))
+                        return INVALID_VALUE;
+                    l = Math.round(d);
+                }
+                if (type == Event.PARAM_INT && (int) l != l)
+                    return INVALID_VALUE;
+                event.setParam(index, type, l, 0.0, null);
+                // ints and longs are the same to the backends
+                return integral ? NONE : COERCED;
+            default:
+                double d;
+                if (integral) {
+                    d = event.getLong(index);
+                } else if (kind == Event.PARAM_STRING) {
+                    try {
+                        d = Double.parseDouble(String.valueOf(event.getString(index)).trim());
+                    } catch (NumberFormatException e) {
+                        return INVALID_VALUE;
+                    }
+                } else {
+                    d = event.getDouble(index);
+                }
+                event.setParam(index, type, 0L, d, null);
+                return integral || kind == Event.PARAM_STRING ? COERCED : NONE;
+        }
+    }
+
+    /**
+     * @return true for firebase event and parameter names: up to 40 letters, digits or
+     * underscores, starting with a letter and without a reserved prefix.
+     */
+    static boolean isValidName(@Nullable String name) {
+        if (name == null || name.isEmpty() || name.length() > EventSchema.MAX_NAME_LENGTH)
+            return false;
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+            if (!letter && (i == 0 || !(c == '_' || (c >= '0' && c <= '9'))))
+                return false;
+        }
+        for (String prefix : RESERVED_PREFIXES) {
+            if (name.startsWith(prefix))
+                return false;
+        }
+        return true;
+    }
+
+    private static final class Rule {
+        final String name;
+        // violation which drops every event of the name, NONE to keep them
+        final int drop;
+        // declared parameters, null for an undeclared event
+        final String[] keys;
+        final int[] types;
+        final AtomicLongArray counts;
+
+        Rule(String name, int drop, String[] keys, int[] types, AtomicLongArray counts) {
+            this.name = name;
+            this.drop = drop;
+            this.keys = keys;
+            this.types = types;
+            this.counts = counts;
+        }
+
+        /**
+         * @return declared type of a parameter, NONE if undeclared.
+         */
+        int typeOf(String key) {
+            if (keys == null)
+                return NONE;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i].equals(key))
+                    return types[i];
+            }
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Remembers the answer of {@link EventLogger.EventLoggerCallback#needExtendSession(String, String)}
+ * per event name and category, instead of asking the callback on every log call. Lookups do not
+ * allocate. Up to {@link #MAX_ENTRIES} pairs are kept, the callback is asked every time for the
+ * pairs seen after that.
+ */
+final class ExtendSessionCache {
+
+    static final int MAX_ENTRIES = 1024;
+
+    private final EventLogger.EventLoggerCallback callback;
+    // answers by event name and category
+    private final ConcurrentHashMap<String, ConcurrentHashMap<String, Boolean>> answers = new ConcurrentHashMap<>();
+    // answers by event name for events without category
+    private final ConcurrentHashMap<String, Boolean> noCategory = new ConcurrentHashMap<>();
+    private final AtomicInteger size = new AtomicInteger();
+
+    ExtendSessionCache(@NonNull EventLogger.EventLoggerCallback callback) {
+        this.callback = callback;
+    }
+
+    boolean needExtendSession(@NonNull String eventName, @Nullable String category) {
+        ConcurrentHashMap<String, Boolean> byCategory;
+        if (category == null) {
+            byCategory = noCategory;
+        } else {
+            byCategory = answers.get(eventName);
+            if (byCategory == null) {
+                if (size.get() >= MAX_ENTRIES)
+                    return callback.needExtendSession(eventName, category);
+                ConcurrentHashMap<String, Boolean> created = new ConcurrentHashMap<>();
+                byCategory = answers.putIfAbsent(eventName, created);
+                if (byCategory == null)
+                    byCategory = created;
+            }
+        }
+        Boolean answer = byCategory.get(category == null ? eventName : category);
+        if (answer != null)
+            return answer;
+
+        boolean extendSession = callback.needExtendSession(eventName, category);
+        if (size.get() < MAX_ENTRIES && byCategory.putIfAbsent(category == null ? eventName : category, extendSession) == null)
+            size.incrementAndGet();
+        return extendSession;
+    }
+}
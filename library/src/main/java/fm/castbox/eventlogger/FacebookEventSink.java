@@ -0,0 +1,119 @@
+package fm.castbox.eventlogger;
+
+import android.app.Application;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.facebook.GraphRequest;
+import com.facebook.GraphResponse;
+import com.facebook.appevents.AppEventsConstants;
+import com.facebook.appevents.AppEventsLogger;
+
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Facebook event logger.
+ */
+public class FacebookEventSink extends AbstractEventSink {
+
+    public static final String NAME = "facebook";
+
+    private final AppEventsLogger facebookEventsLogger;
+    private final BundleTemplates templates = new BundleTemplates(new BundleTemplates.Builder() {
+        @Override
+        public void putConstants(@NonNull Event event, @NonNull Bundle constants) {
+            if (event.getType() != Event.TYPE_EVENT || !TextUtils.isEmpty(event.getCategory()))
+                constants.putString(AppEventsConstants.EVENT_PARAM_CONTENT_TYPE, event.getCategory());
+        }
+    });
+
+    public FacebookEventSink(@NonNull Application application) {
+        // disabled since v4.19.0
+        //if (!FacebookSdk.isInitialized())
+        //    FacebookSdk.sdkInitialize(application);
+        AppEventsLogger.activateApp(application);
+        facebookEventsLogger = AppEventsLogger.newLogger(application);
+    }
+
+    public AppEventsLogger getFacebookEventsLogger() {
+        return facebookEventsLogger;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        final String eventName = event.getName();
+        if (eventName == null)
+            return;
+
+        Bundle parameters;
+        switch (event.getType()) {
+            case Event.TYPE_SCREEN:
+            case Event.TYPE_SCREEN_LIFE:
+                parameters = templates.newBundle(event, false);
+                parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, event.getScreen());
+                break;
+            case Event.TYPE_EVENT:
+                parameters = templates.newBundle(event, true);
+                if (!event.hasValue() || !TextUtils.isEmpty(event.getItemName()))
+                    parameters.putString(AppEventsConstants.EVENT_PARAM_CONTENT_ID, event.getItemName());
+                break;
+            default:
+                // purchases are only logged to firebase
+                return;
+        }
+        if (event.getSessionSeq() != 0L) {
+            parameters.putLong(SessionTracker.PARAM_SESSION_ID, event.getSessionId());
+            parameters.putLong(SessionTracker.PARAM_SESSION_SEQ, event.getSessionSeq());
+        }
+
+        if (event.hasValue())
+            facebookEventsLogger.logEvent(eventName, event.getValue(), parameters);
+        else
+            facebookEventsLogger.logEvent(eventName, parameters);
+    }
+
+    @Override
+    public void setUserProperty(@NonNull final String key, @Nullable final String value) {
+        Bundle parameters = new Bundle();
+        parameters.putString(key, value);
+        AppEventsLogger.updateUserProperties(parameters, new GraphRequest.Callback() {
+            @Override
+            public void onCompleted(GraphResponse response) {
+                Timber.d("User properties updated: %s=%s", key, value);
+            }
+        });
+    }
+
+    /**
+     * One graph request for all the properties.
+     */
+    @Override
+    public void setUserProperties(@NonNull final Map<String, String> properties) {
+        Bundle parameters = new Bundle();
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            parameters.putString(property.getKey(), property.getValue());
+        }
+        AppEventsLogger.updateUserProperties(parameters, new GraphRequest.Callback() {
+            @Override
+            public void onCompleted(GraphResponse response) {
+                Timber.d("User properties updated: %s", properties);
+            }
+        });
+    }
+
+    @Override
+    public void setUserId(@Nullable String userId) {
+        AppEventsLogger.setUserID(userId);
+    }
+}
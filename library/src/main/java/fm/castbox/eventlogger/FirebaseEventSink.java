@@ -0,0 +1,107 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+import android.content.Context;
+import android.os.Bundle;
+import android.text.TextUtils;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+/**
+ * Google firebase event logger.
+ */
+public class FirebaseEventSink extends AbstractEventSink {
+
+    public static final String NAME = "firebase";
+
+    private final FirebaseAnalytics firebaseAnalytics;
+    private final BundleTemplates templates = new BundleTemplates(new BundleTemplates.Builder() {
+        @Override
+        public void putConstants(@NonNull Event event, @NonNull Bundle constants) {
+            switch (event.getType()) {
+                case Event.TYPE_SCREEN:
+                case Event.TYPE_SCREEN_LIFE:
+                    constants.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, event.getCategory());
+                    break;
+                case Event.TYPE_EVENT:
+                    if (event.isExtendSession())
+                        constants.putLong("extend_session", 1);
+                    if (!TextUtils.isEmpty(event.getCategory()))
+                        constants.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, event.getCategory());
+                    break;
+                case Event.TYPE_PURCHASE:
+                    if (!TextUtils.isEmpty(event.getCategory()))
+                        constants.putString(FirebaseAnalytics.Param.ITEM_CATEGORY, event.getCategory());
+                    break;
+            }
+        }
+    });
+
+    public FirebaseEventSink(@NonNull Context context) {
+        firebaseAnalytics = FirebaseAnalytics.getInstance(context);
+        firebaseAnalytics.setAnalyticsCollectionEnabled(true);
+    }
+
+    public FirebaseAnalytics getFirebaseAnalytics() {
+        return firebaseAnalytics;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        Bundle bundle;
+        switch (event.getType()) {
+            case Event.TYPE_SCREEN:
+            case Event.TYPE_PURCHASE:
+                bundle = templates.newBundle(event, false);
+                bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, event.getItemName());
+                break;
+            case Event.TYPE_SCREEN_LIFE:
+                bundle = templates.newBundle(event, false);
+                bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, event.getItemName());
+                bundle.putLong(FirebaseAnalytics.Param.VALUE, event.getValue());
+                break;
+            case Event.TYPE_EVENT:
+                bundle = templates.newBundle(event, true);
+                if (!TextUtils.isEmpty(event.getScreen())) {
+                    bundle.putString("screen", event.getScreen());
+                }
+                if (!TextUtils.isEmpty(event.getItemName()))
+                    bundle.putString(FirebaseAnalytics.Param.ITEM_NAME, event.getItemName());
+                if (event.hasValue())
+                    bundle.putLong(FirebaseAnalytics.Param.VALUE, event.getValue());
+                break;
+            default:
+                return;
+        }
+        if (event.getSessionSeq() != 0L) {
+            bundle.putLong(SessionTracker.PARAM_SESSION_ID, event.getSessionId());
+            bundle.putLong(SessionTracker.PARAM_SESSION_SEQ, event.getSessionSeq());
+        }
+        firebaseAnalytics.logEvent(event.getName(), bundle);
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String key, @Nullable String value) {
+        firebaseAnalytics.setUserProperty(key, value);
+    }
+
+    @Override
+    public void setUserId(@Nullable String userId) {
+        firebaseAnalytics.setUserId(userId);
+    }
+
+    @Override
+    public void setCurrentScreen(@NonNull Activity activity, @NonNull String screenName) {
+        // screen_view event
+        firebaseAnalytics.setCurrentScreen(activity, screenName, null);
+    }
+}
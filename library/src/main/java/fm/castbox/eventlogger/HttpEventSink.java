@@ -0,0 +1,222 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batching sink posting events as a JSON array to an HTTP endpoint, i.e. an in-house collector.
+ * <p>
+ * It only depends on {@code java.net}, so it also runs on a plain JVM against a local server to
+ * measure the batching pipeline without a live service.
+ */
+public class HttpEventSink extends AbstractEventSink {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String name;
+    private final URL endpoint;
+    private final BatchPolicy batchPolicy;
+    private int connectTimeoutMillis = 10 * 1000;
+    private int readTimeoutMillis = 10 * 1000;
+
+    public HttpEventSink(@NonNull String name, @NonNull URL endpoint, @NonNull BatchPolicy batchPolicy) {
+        this.name = name;
+        this.endpoint = endpoint;
+        this.batchPolicy = batchPolicy;
+    }
+
+    public HttpEventSink setTimeouts(int connectTimeoutMillis, int readTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+        this.readTimeoutMillis = readTimeoutMillis;
+        return this;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getThreadMode() {
+        return THREAD_BACKGROUND;
+    }
+
+    @Override
+    public boolean isBatching() {
+        return true;
+    }
+
+    @NonNull
+    @Override
+    public BatchPolicy getBatchPolicy() {
+        return batchPolicy;
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        logEvents(Collections.singletonList(event));
+    }
+
+    /**
+     * Post the events in a single request.
+     *
+     * @throws RuntimeException if the request failed, so the batch is counted as dropped.
+     */
+    @Override
+    public void logEvents(@NonNull List<Event> events) {
+        try {
+            post(toJson(events).getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to post " + events.size() + " events to " + endpoint, e);
+        }
+    }
+
+    private void post(byte[] body) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        try {
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setConnectTimeout(connectTimeoutMillis);
+            connection.setReadTimeout(readTimeoutMillis);
+            connection.setFixedLengthStreamingMode(body.length);
+            connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+            OutputStream out = connection.getOutputStream();
+            try {
+                out.write(body);
+            } finally {
+                out.close();
+            }
+            int code = connection.getResponseCode();
+            if (code < 200 || code >= 300)
+                throw new IOException("HTTP " + code);
+            // read the response to the end so the connection is kept alive for the next batch
+            drain(connection.getInputStream());
+        } catch (IOException e) {
+            drain(connection.getErrorStream());
+            throw e;
+        }
+    }
+
+    private static void drain(@Nullable InputStream in) {
+        if (in == null)
+            return;
+        try {
+            byte[] buffer = new byte[512];
+            while (in.read(buffer) > 0) {
+                // discard
+            }
+        } catch (IOException ignored) {
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    @NonNull
+    static String toJson(@NonNull List<Event> events) {
+        StringBuilder sb = new StringBuilder(events.size() * 128);
+        sb.append('[');
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0)
+                sb.append(',');
+            appendEvent(sb, events.get(i));
+        }
+        sb.append(']');
+        return sb.toString();
+    }
+
+    private static void appendEvent(StringBuilder sb, Event event) {
+        sb.append("{\"type\":").append(event.getType());
+        appendField(sb, "name", event.getName());
+        appendField(sb, "category", event.getCategory());
+        appendField(sb, "item_name", event.getItemName());
+        appendField(sb, "screen", event.getScreen());
+        if (event.hasValue())
+            sb.append(",\"value\":").append(event.getValue());
+        if (event.isExtendSession())
+            sb.append(",\"extend_session\":1");
+        if (event.getSessionSeq() != 0L)
+            sb.append(",\"session_id\":").append(event.getSessionId()).append(",\"session_seq\":").append(event.getSessionSeq());
+        if (event.getParamCount() > 0) {
+            sb.append(",\"params\":{");
+            for (int i = 0; i < event.getParamCount(); i++) {
+                if (i > 0)
+                    sb.append(',');
+                appendString(sb, event.getParamKey(i));
+                sb.append(':');
+                switch (event.getParamType(i)) {
+                    case Event.PARAM_STRING:
+                        appendString(sb, event.getString(i));
+                        break;
+                    case Event.PARAM_LONG:
+                    case Event.PARAM_INT:
+                        sb.append(event.getLong(i));
+                        break;
+                    default:
+                        double value = event.getDouble(i);
+                        if (Double.isNaN(value) || Double.isInfinite(value))
+                            sb.append("null");
+                        else
+                            sb.append(value);
+                        break;
+                }
+            }
+            sb.append('}');
+        }
+        sb.append('}');
+    }
+
+    private static void appendField(StringBuilder sb, String key, String value) {
+        if (value == null)
+            return;
+        sb.append(",\"").append(key).append("\":");
+        appendString(sb, value);
+    }
+
+    private static void appendString(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+                    break;
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,24 @@
+package fm.castbox.eventlogger;
+
+/**
+ * When the firebase and facebook backends are created, see {@link EventLogger#setInitPolicy(InitPolicy)}.
+ * Until a backend is created, the events for it are buffered in order.
+ */
+public enum InitPolicy {
+    /**
+     * Create the backends in {@link EventLogger#init}.
+     */
+    IMMEDIATE,
+    /**
+     * Create the backends on a background thread started by init.
+     */
+    BACKGROUND,
+    /**
+     * Create the backends on a background thread when the first event is logged.
+     */
+    FIRST_USE,
+    /**
+     * Create the backends on a background thread once the first logged screen has been drawn.
+     */
+    FIRST_FRAME
+}
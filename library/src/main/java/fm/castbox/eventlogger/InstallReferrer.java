@@ -0,0 +1,48 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Install referrer reported by Google Play, fetched once per installation.
+ */
+public final class InstallReferrer {
+
+    private final String url;
+    private final long clickTimeMillis;
+    private final long installBeginTimeMillis;
+
+    InstallReferrer(@Nullable String url, long clickTimeMillis, long installBeginTimeMillis) {
+        this.url = url;
+        this.clickTimeMillis = clickTimeMillis;
+        this.installBeginTimeMillis = installBeginTimeMillis;
+    }
+
+    /**
+     * @return the referrer, i.e. {@code utm_source=google-play&utm_medium=organic}, null if there is none.
+     */
+    @Nullable
+    public String getUrl() {
+        return url;
+    }
+
+    /**
+     * @return when the referrer link was clicked, 0 if unknown.
+     */
+    public long getClickTimeMillis() {
+        return clickTimeMillis;
+    }
+
+    /**
+     * @return when the installation started, 0 if unknown.
+     */
+    public long getInstallBeginTimeMillis() {
+        return installBeginTimeMillis;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "InstallReferrer{url=" + url + ", click=" + clickTimeMillis + ", installBegin=" + installBeginTimeMillis + "}";
+    }
+}
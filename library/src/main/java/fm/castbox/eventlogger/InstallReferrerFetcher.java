@@ -0,0 +1,228 @@
+package fm.castbox.eventlogger;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.android.installreferrer.api.InstallReferrerClient;
+import com.android.installreferrer.api.InstallReferrerStateListener;
+import com.android.installreferrer.api.ReferrerDetails;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import timber.log.Timber;
+
+/**
+ * Fetches the install referrer from Google Play once per installation and keeps it in the
+ * {@link StateStore}, so later launches do not connect to the referrer service again.
+ * <p>
+ * Transient failures (service unavailable or disconnected, remote exceptions) are retried with
+ * exponential backoff up to {@link #MAX_ATTEMPTS} times, a missing referrer API is remembered and
+ * never asked again. A broadcast passed in is held open until the fetch is done, or at most
+ * {@link #BROADCAST_TIMEOUT}, within the time the system gives a receiver. A referrer not fetched
+ * on the first launch is fetched again on launches within {@link #RETRY_PERIOD} of the
+ * installation, later it would not change the campaign anyway.
+ */
+final class InstallReferrerFetcher {
+
+    interface Listener {
+        /**
+         * Called on the scheduler thread with a newly fetched referrer.
+         */
+        void onInstallReferrer(@NonNull InstallReferrer referrer);
+    }
+
+    static final int MAX_ATTEMPTS = 5;
+    static final long INITIAL_BACKOFF = 1000L;
+    static final long MAX_BACKOFF = 8000L;
+    static final long BROADCAST_TIMEOUT = 9000L;
+    static final long RETRY_PERIOD = 24 * 3600 * 1000L;
+
+    private final Context context;
+    private final StateStore state;
+    private final Listener listener;
+    // broadcasts held open by the fetch, guarded by this
+    private final List<BroadcastReceiver.PendingResult> pending = new ArrayList<>();
+    // one fetch per process at a time, guarded by this
+    private boolean fetching;
+
+    InstallReferrerFetcher(@NonNull Context context, @NonNull StateStore state, @NonNull Listener listener) {
+        this.context = context;
+        this.state = state;
+        this.listener = listener;
+    }
+
+    /**
+     * Fetch the install referrer unless it is known already.
+     *
+     * @param result broadcast to finish when done, null when not called from a receiver.
+     */
+    void fetch(@Nullable final BroadcastReceiver.PendingResult result) {
+        synchronized (this) {
+            if (result != null) {
+                pending.add(result);
+                Scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        timeout(result);
+                    }
+                }, BROADCAST_TIMEOUT);
+            }
+            if (fetching)
+                return;
+            fetching = true;
+        }
+        final boolean firstLaunch = result != null;
+        Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // the state is read on the scheduler thread too, it is loaded by now
+                long now = System.currentTimeMillis();
+                if (state.isInstallReferrerDone() || (!firstLaunch && now - state.getFirstLaunchTime(now) > RETRY_PERIOD))
+                    done();
+                else
+                    new Attempt(1).start();
+            }
+        }, 0L);
+    }
+
+    private void timeout(@NonNull BroadcastReceiver.PendingResult result) {
+        synchronized (this) {
+            if (!pending.remove(result))
+                return;
+        }
+        finish(result);
+    }
+
+    private void done() {
+        List<BroadcastReceiver.PendingResult> results;
+        synchronized (this) {
+            fetching = false;
+            results = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (BroadcastReceiver.PendingResult result : results) {
+            finish(result);
+        }
+    }
+
+    private static void finish(@NonNull BroadcastReceiver.PendingResult result) {
+        try {
+            result.finish();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * One connection to the referrer service, callbacks after the first are ignored.
+     */
+    private final class Attempt implements InstallReferrerStateListener, Runnable {
+
+        private final int attempt;
+        private final AtomicBoolean finished = new AtomicBoolean(false);
+        private InstallReferrerClient client;
+
+        Attempt(int attempt) {
+            this.attempt = attempt;
+        }
+
+        void start() {
+            try {
+                client = InstallReferrerClient.newBuilder(context).build();
+                client.startConnection(this);
+            } catch (Exception e) {
+                Timber.w(e, "Failed to connect to the install referrer service");
+                if (finished.compareAndSet(false, true))
+                    retry();
+            }
+        }
+
+        @Override
+        public void onInstallReferrerSetupFinished(int responseCode) {
+            if (!finished.compareAndSet(false, true))
+                return;
+            switch (responseCode) {
+                case InstallReferrerClient.InstallReferrerResponse.OK:
+                    // a binder call, keep it off the main thread
+                    Scheduler.schedule(this, 0L);
+                    break;
+                case InstallReferrerClient.InstallReferrerResponse.FEATURE_NOT_SUPPORTED:
+                case InstallReferrerClient.InstallReferrerResponse.DEVELOPER_ERROR:
+                    Timber.d("Install referrer not available, response %d.", responseCode);
+                    endConnection();
+                    state.setInstallReferrer(null);
+                    done();
+                    break;
+                default:
+                    Timber.d("Install referrer service unavailable, response %d.", responseCode);
+                    endConnection();
+                    retry();
+                    break;
+            }
+        }
+
+        @Override
+        public void onInstallReferrerServiceDisconnected() {
+            if (!finished.compareAndSet(false, true))
+                return;
+            Timber.d("Install referrer service disconnected.");
+            endConnection();
+            retry();
+        }
+
+        /**
+         * Read the referrer once connected.
+         */
+        @Override
+        public void run() {
+            ReferrerDetails details;
+            try {
+                details = client.getInstallReferrer();
+            } catch (Exception e) {
+                Timber.w(e, "Failed to read the install referrer");
+                endConnection();
+                retry();
+                return;
+            }
+            endConnection();
+            InstallReferrer referrer = new InstallReferrer(details.getInstallReferrer(),
+                    details.getReferrerClickTimestampSeconds() * 1000L,
+                    details.getInstallBeginTimestampSeconds() * 1000L);
+            Timber.d("Install referrer %s.", referrer);
+            state.setInstallReferrer(referrer);
+            try {
+                listener.onInstallReferrer(referrer);
+            } catch (Exception ignored) {
+            }
+            done();
+        }
+
+        private void endConnection() {
+            try {
+                if (client != null)
+                    client.endConnection();
+            } catch (Exception ignored) {
+            }
+        }
+
+        private void retry() {
+            if (attempt >= MAX_ATTEMPTS) {
+                // tried again on a later launch
+                Timber.d("Install referrer not fetched after %d attempts.", attempt);
+                done();
+                return;
+            }
+            final Attempt next = new Attempt(attempt + 1);
+            Scheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    next.start();
+                }
+            }, Math.min(INITIAL_BACKOFF << (attempt - 1), MAX_BACKOFF));
+        }
+    }
+}
@@ -0,0 +1,264 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import timber.log.Timber;
+
+/**
+ * Stands in for a backend whose sdk is expensive to set up, until {@link #create()} built it on a
+ * background thread. Calls made in the meantime are buffered in order and replayed to the backend
+ * once it exists, the latest screen is set again on the main thread.
+ * <p>
+ * Only for backends running on the dispatcher thread without batching.
+ */
+final class LazySink extends AbstractEventSink {
+
+    interface Factory {
+        /**
+         * Build the backend, called once on a background thread.
+         */
+        @NonNull
+        EventSink create() throws Exception;
+    }
+
+    // calls buffered until the backend exists, the oldest events are dropped beyond it
+    static final int MAX_PENDING = 1000;
+
+    private final String name;
+    private final Factory factory;
+    private final boolean createOnFirstUse;
+
+    private volatile EventSink delegate;
+    private final AtomicBoolean creating = new AtomicBoolean(false);
+    private final ArrayDeque<Object> pending = new ArrayDeque<>();
+    private WeakReference<Activity> pendingActivity;
+    private String pendingScreen;
+    private final AtomicLong dropped = new AtomicLong();
+
+    LazySink(@NonNull String name, boolean createOnFirstUse, @NonNull Factory factory) {
+        this.name = name;
+        this.createOnFirstUse = createOnFirstUse;
+        this.factory = factory;
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return the backend, null until created.
+     */
+    @Nullable
+    EventSink getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return events dropped because too many were buffered.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Create the backend on a new background thread, only the first call has an effect.
+     */
+    void create() {
+        if (!creating.compareAndSet(false, true))
+            return;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                createNow();
+            }
+        }, "EventLogger-init-" + name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void createNow() {
+        final long start = System.nanoTime();
+        EventSink sink;
+        try {
+            sink = factory.create();
+        } catch (Exception e) {
+            Timber.w(e, "Failed to create %s, its events are dropped", name);
+            sink = null;
+        }
+        final Activity activity;
+        final String screen;
+        synchronized (this) {
+            // replay in order while holding the lock, so later calls wait for the replay
+            Object call;
+            while ((call = pending.poll()) != null) {
+                if (sink != null)
+                    replay(sink, call);
+                if (call instanceof Event)
+                    ((Event) call).release();
+            }
+            activity = pendingActivity == null ? null : pendingActivity.get();
+            screen = pendingScreen;
+            pendingActivity = null;
+            pendingScreen = null;
+            delegate = sink == null ? new NoSink(name) : sink;
+        }
+        if (activity != null && screen != null) {
+            final EventSink created = delegate;
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        created.setCurrentScreen(activity, screen);
+                    } catch (Exception ignored) {
+                    }
+                }
+            });
+        }
+        Timber.d("Created %s in %d ms", name, (System.nanoTime() - start) / 1000000);
+    }
+
+    private static void replay(EventSink sink, Object call) {
+        try {
+            if (call instanceof Event) {
+                sink.logEvent((Event) call);
+            } else if (call instanceof Map) {
+                // only user properties are buffered as maps
+                @SuppressWarnings("unchecked")
+                Map<String, String> properties = (Map<String, String>) call;
+                sink.setUserProperties(properties);
+            } else {
+                String[] property = (String[]) call;
+                if (property.length == 1)
+                    sink.setUserId(property[0]);
+                else
+                    sink.setUserProperty(property[0], property[1]);
+            }
+        } catch (Exception ignored) {
+        }
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        EventSink sink = delegate;
+        if (sink == null) {
+            synchronized (this) {
+                sink = delegate;
+                if (sink == null) {
+                    buffer(event.retain());
+                    return;
+                }
+            }
+        }
+        sink.logEvent(event);
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String key, @Nullable String value) {
+        EventSink sink = delegate;
+        if (sink == null) {
+            synchronized (this) {
+                sink = delegate;
+                if (sink == null) {
+                    buffer(new String[]{key, value});
+                    return;
+                }
+            }
+        }
+        sink.setUserProperty(key, value);
+    }
+
+    @Override
+    public void setUserProperties(@NonNull Map<String, String> properties) {
+        EventSink sink = delegate;
+        if (sink == null) {
+            synchronized (this) {
+                sink = delegate;
+                if (sink == null) {
+                    buffer(properties);
+                    return;
+                }
+            }
+        }
+        sink.setUserProperties(properties);
+    }
+
+    @Override
+    public void setUserId(@Nullable String userId) {
+        EventSink sink = delegate;
+        if (sink == null) {
+            synchronized (this) {
+                sink = delegate;
+                if (sink == null) {
+                    buffer(new String[]{userId});
+                    return;
+                }
+            }
+        }
+        sink.setUserId(userId);
+    }
+
+    @Override
+    public void setCurrentScreen(@NonNull Activity activity, @NonNull String screenName) {
+        EventSink sink = delegate;
+        if (sink == null) {
+            synchronized (this) {
+                sink = delegate;
+                if (sink == null) {
+                    pendingActivity = new WeakReference<>(activity);
+                    pendingScreen = screenName;
+                    return;
+                }
+            }
+        }
+        sink.setCurrentScreen(activity, screenName);
+    }
+
+    /**
+     * Called holding the lock.
+     */
+    private void buffer(Object call) {
+        if (pending.size() >= MAX_PENDING) {
+            Object oldest = pending.poll();
+            if (oldest instanceof Event)
+                ((Event) oldest).release();
+            dropped.incrementAndGet();
+        }
+        pending.add(call);
+        if (createOnFirstUse)
+            create();
+    }
+
+    /**
+     * Takes the place of a backend which failed to be created.
+     */
+    private static final class NoSink extends AbstractEventSink {
+        private final String name;
+
+        NoSink(String name) {
+            this.name = name;
+        }
+
+        @NonNull
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public void logEvent(@NonNull Event event) {
+        }
+    }
+}
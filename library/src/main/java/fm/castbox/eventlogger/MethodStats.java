@@ -0,0 +1,97 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Snapshot of the calls of one method of a sink, i.e. {@code logEvent} of the firebase sink.
+ */
+public final class MethodStats {
+
+    private final String sinkName;
+    private final String method;
+    private final long calls;
+    private final long errors;
+    private final Map<String, Long> errorsByClass;
+    private final long totalNanos;
+    private final long p50Nanos;
+    private final long p90Nanos;
+    private final long p99Nanos;
+    private final long maxNanos;
+
+    MethodStats(String sinkName, String method, long calls, long errors, Map<String, Long> errorsByClass,
+                long totalNanos, long p50Nanos, long p90Nanos, long p99Nanos, long maxNanos) {
+        this.sinkName = sinkName;
+        this.method = method;
+        this.calls = calls;
+        this.errors = errors;
+        this.errorsByClass = Collections.unmodifiableMap(errorsByClass);
+        this.totalNanos = totalNanos;
+        this.p50Nanos = p50Nanos;
+        this.p90Nanos = p90Nanos;
+        this.p99Nanos = p99Nanos;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return sink name, {@link MetricsSnapshot#CALLER} for the time spent in the log methods.
+     */
+    @NonNull
+    public String getSinkName() {
+        return sinkName;
+    }
+
+    @NonNull
+    public String getMethod() {
+        return method;
+    }
+
+    public long getCallCount() {
+        return calls;
+    }
+
+    /**
+     * @return number of calls which threw.
+     */
+    public long getErrorCount() {
+        return errors;
+    }
+
+    /**
+     * @return error counts by exception class name.
+     */
+    @NonNull
+    public Map<String, Long> getErrorsByClass() {
+        return errorsByClass;
+    }
+
+    public long getAverageNanos() {
+        return calls == 0 ? 0 : totalNanos / calls;
+    }
+
+    public long getP50Nanos() {
+        return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+        return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+        return p99Nanos;
+    }
+
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%s.%s{calls=%d, errors=%d, avg=%dus, p50=%dus, p90=%dus, p99=%dus, max=%dus}",
+                sinkName, method, calls, errors, getAverageNanos() / 1000, p50Nanos / 1000, p90Nanos / 1000,
+                p99Nanos / 1000, maxNanos / 1000);
+    }
+}
@@ -0,0 +1,56 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Call counts, errors and latencies of every sink method, see {@link EventLogger#getMetrics()}.
+ */
+public final class MetricsSnapshot {
+
+    /**
+     * sink name of the time spent in the public log methods on the caller thread, by method, i.e.
+     * {@code logEvent} or {@code logScreen}.
+     */
+    public static final String CALLER = "caller";
+
+    private final long timeMillis;
+    private final List<MethodStats> methods;
+
+    MetricsSnapshot(long timeMillis, @NonNull List<MethodStats> methods) {
+        this.timeMillis = timeMillis;
+        this.methods = Collections.unmodifiableList(methods);
+    }
+
+    /**
+     * @return time the snapshot was taken.
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * @return stats of every method called at least once.
+     */
+    @NonNull
+    public List<MethodStats> getMethods() {
+        return methods;
+    }
+
+    @Nullable
+    public MethodStats get(@NonNull String sinkName, @NonNull String method) {
+        for (MethodStats stats : methods) {
+            if (stats.getSinkName().equals(sinkName) && stats.getMethod().equals(method))
+                return stats;
+        }
+        return null;
+    }
+
+    @Override
+    public String toString() {
+        return "MetricsSnapshot" + methods;
+    }
+}
@@ -0,0 +1,80 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+/**
+ * An event logged once per installation when the user reaches it, i.e. is still active a day or a
+ * week after installing the app, or starts the app for the n-th time.
+ * <p>
+ * Fired milestones are remembered by name, so the order of the list given to
+ * {@link EventLogger#setMilestones(Milestone...)} does not matter, while a renamed milestone
+ * fires again.
+ */
+public final class Milestone {
+
+    static final int KIND_INSTALL_AGE = 0;
+    static final int KIND_SESSION = 1;
+
+    private static final long DAY = 24 * 60 * 60L;
+
+    /**
+     * the milestones logged before they were configurable.
+     */
+    static final Milestone[] DEFAULTS = {
+            installAge("retention_d2", DAY, 2 * DAY),
+            installAge("retention_w2", 7 * DAY, 14 * DAY),
+            installAge("retention_m2", 30 * DAY, 60 * DAY),
+    };
+
+    final String name;
+    final int kind;
+    final long from;
+    final long to;
+
+    private Milestone(String name, int kind, long from, long to) {
+        if (from >= to)
+            throw new IllegalArgumentException("Empty milestone window " + name);
+        this.name = name;
+        this.kind = kind;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * Logged on the first screen while the app was installed more than {@code fromSeconds} and at
+     * most {@code toSeconds} ago.
+     */
+    @NonNull
+    public static Milestone installAge(@NonNull String name, long fromSeconds, long toSeconds) {
+        return new Milestone(name, KIND_INSTALL_AGE, fromSeconds, toSeconds);
+    }
+
+    /**
+     * Logged on the first screen after the app was installed {@code fromDay} to {@code toDay} days
+     * ago, i.e. {@code days("retention_d2", 1, 2)}.
+     */
+    @NonNull
+    public static Milestone days(@NonNull String name, int fromDay, int toDay) {
+        return installAge(name, fromDay * DAY, toDay * DAY);
+    }
+
+    /**
+     * Logged on the first screen of the n-th session, a session starts with the first screen after
+     * the app was launched or came back from 30 minutes in the background, or the timeout given to
+     * {@link EventLogger#enableSessions(long)}.
+     */
+    @NonNull
+    public static Milestone session(@NonNull String name, int session) {
+        return new Milestone(name, KIND_SESSION, session - 1, session);
+    }
+
+    @NonNull
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return name + (kind == KIND_SESSION ? " session " + to : " (" + from + "s, " + to + "s]");
+    }
+}
@@ -0,0 +1,121 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * {@link Milestone}s sorted by the start of their window, one schedule per kind. A check only
+ * looks at the next pending milestone of each schedule: the cursor moves past fired and expired
+ * milestones, and as the windows are sorted, a milestone which has not started means none of the
+ * following has.
+ * <p>
+ * Fired milestones are bits in a long, so there are at most 64 of them. The bits are positions in
+ * this schedule only, the state keeps the names, see {@link #bitsOf(Collection)}.
+ */
+final class MilestoneSchedule {
+
+    static final int MAX_MILESTONES = 64;
+
+    private final Milestone[] milestones;
+    private final long allFired;
+    private final Cursor installAge;
+    private final Cursor session;
+    private final Clock clock;
+
+    MilestoneSchedule(@NonNull Milestone[] milestones, @NonNull Clock clock) {
+        if (milestones.length > MAX_MILESTONES)
+            throw new IllegalArgumentException("At most " + MAX_MILESTONES + " milestones");
+        this.milestones = milestones.clone();
+        this.clock = clock;
+        allFired = milestones.length == MAX_MILESTONES ? -1L : (1L << milestones.length) - 1;
+        installAge = new Cursor(this.milestones, Milestone.KIND_INSTALL_AGE);
+        session = new Cursor(this.milestones, Milestone.KIND_SESSION);
+    }
+
+    /**
+     * @return true if no milestone is left to fire.
+     */
+    boolean isDone(long fired) {
+        return (fired & allFired) == allFired;
+    }
+
+    /**
+     * @param firstLaunchTime first launch time in millis.
+     * @param sessions        sessions started so far.
+     * @param fired           bits of the fired milestones.
+     * @return bit of the milestone to fire, -1 if none is due.
+     */
+    int next(long firstLaunchTime, int sessions, long fired) {
+        if (isDone(fired))
+            return -1;
+        long installAgeSeconds = Math.abs((clock.currentTimeMillis() - firstLaunchTime) / 1000);
+        int bit = installAge.next(installAgeSeconds, fired);
+        return bit >= 0 ? bit : session.next(sessions, fired);
+    }
+
+    /**
+     * @return bits of the milestones with one of the names.
+     */
+    long bitsOf(@NonNull Collection<String> names) {
+        long bits = 0L;
+        for (int i = 0; i < milestones.length; i++) {
+            if (names.contains(milestones[i].name))
+                bits |= 1L << i;
+        }
+        return bits;
+    }
+
+    @NonNull
+    Milestone get(int bit) {
+        return milestones[bit];
+    }
+
+    private static final class Cursor {
+        private final long[] from;
+        private final long[] to;
+        private final int[] bits;
+        // first milestone which may still fire, moves forward only
+        private volatile int position;
+
+        Cursor(final Milestone[] milestones, int kind) {
+            List<Integer> order = new ArrayList<>();
+            for (int i = 0; i < milestones.length; i++) {
+                if (milestones[i].kind == kind)
+                    order.add(i);
+            }
+            Collections.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer a, Integer b) {
+                    long left = milestones[a].from;
+                    long right = milestones[b].from;
+                    return left < right ? -1 : (left == right ? 0 : 1);
+                }
+            });
+            from = new long[order.size()];
+            to = new long[order.size()];
+            bits = new int[order.size()];
+            for (int i = 0; i < bits.length; i++) {
+                Milestone milestone = milestones[order.get(i)];
+                from[i] = milestone.from;
+                to[i] = milestone.to;
+                bits[i] = order.get(i);
+            }
+        }
+
+        int next(long value, long fired) {
+            int i = position;
+            while (i < bits.length && ((fired & (1L << bits[i])) != 0 || value > to[i]))
+                i++;
+            if (i != position)
+                position = i;
+            if (i < bits.length && value > from[i])
+                return bits[i];
+            return -1;
+        }
+    }
+}
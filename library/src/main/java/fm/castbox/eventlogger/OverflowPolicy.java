@@ -0,0 +1,19 @@
+package fm.castbox.eventlogger;
+
+/**
+ * What the async dispatcher does when its queue is full.
+ */
+public enum OverflowPolicy {
+    /**
+     * Evict the oldest queued event to make room for the new one.
+     */
+    DROP_OLDEST,
+    /**
+     * Discard the event being logged.
+     */
+    DROP_NEWEST,
+    /**
+     * Block the caller until there is room in the queue.
+     */
+    BLOCK
+}
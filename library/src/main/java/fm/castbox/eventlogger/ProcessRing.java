@@ -0,0 +1,210 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+
+import timber.log.Timber;
+
+/**
+ * Ring buffer in a memory mapped file, through which secondary processes hand their events to the
+ * main process. Any number of processes append, one process drains.
+ * <p>
+ * Both sides hold a file lock on the header while they move the positions, which orders the
+ * memory accesses of the processes; a thread lock serializes the threads of a process since
+ * file locks are held per process. Appending is a lock and a memory copy, the kernel keeps the
+ * pages if a process dies. When the ring is full new events are dropped and counted.
+ * <p>
+ * Header layout: magic (int), capacity (int), write position (long), read position (long),
+ * dropped events (long). Positions only grow, the offset in the ring is the position modulo the
+ * capacity. Record layout: length (int), payload written by {@link EventCodec}.
+ */
+final class ProcessRing {
+
+    interface Output {
+        void emit(@NonNull Event event);
+    }
+
+    private static final int MAGIC = 0x454c5231; // ELR1
+    private static final int HEADER_SIZE = 32;
+    private static final int CAPACITY_OFFSET = 4;
+    private static final int WRITE_OFFSET = 8;
+    private static final int READ_OFFSET = 16;
+    private static final int DROPPED_OFFSET = 24;
+
+    private final int capacity;
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+    private byte[] drained = new byte[0];
+
+    private ProcessRing(@NonNull FileChannel channel, @NonNull MappedByteBuffer buffer, int capacity) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Map the ring file, created if missing or of another capacity.
+     */
+    @NonNull
+    static ProcessRing open(@NonNull File file, int capacity) throws IOException {
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Can not create " + parent);
+        FileChannel channel = new RandomAccessFile(file, "rw").getChannel();
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+            ProcessRing ring = new ProcessRing(channel, buffer, capacity);
+            synchronized (ring) {
+                FileLock lock = channel.lock(0, HEADER_SIZE, false);
+                try {
+                    if (buffer.getInt(0) != MAGIC || buffer.getInt(CAPACITY_OFFSET) != capacity) {
+                        buffer.putLong(WRITE_OFFSET, 0L);
+                        buffer.putLong(READ_OFFSET, 0L);
+                        buffer.putLong(DROPPED_OFFSET, 0L);
+                        buffer.putInt(CAPACITY_OFFSET, capacity);
+                        buffer.putInt(0, MAGIC);
+                    }
+                } finally {
+                    lock.release();
+                }
+            }
+            return ring;
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Append an event for the main process.
+     *
+     * @return false if the ring is full or can not be locked, the event is counted as dropped.
+     */
+    synchronized boolean offer(@NonNull Event event) {
+        scratch.clear();
+        scratch.putInt(0);
+        scratch = EventCodec.encode(event, scratch);
+        int length = scratch.position();
+        scratch.putInt(0, length - 4);
+        FileLock lock = null;
+        try {
+            lock = channel.lock(0, HEADER_SIZE, false);
+            long write = buffer.getLong(WRITE_OFFSET);
+            long read = buffer.getLong(READ_OFFSET);
+            if (write - read + length > capacity) {
+                buffer.putLong(DROPPED_OFFSET, buffer.getLong(DROPPED_OFFSET) + 1);
+                return false;
+            }
+            put(write, scratch.array(), length);
+            buffer.putLong(WRITE_OFFSET, write + length);
+            return true;
+        } catch (IOException e) {
+            Timber.w(e, "Failed to hand an event to the main process");
+            return false;
+        } finally {
+            release(lock);
+        }
+    }
+
+    /**
+     * @return true if there may be events to drain, read without the lock.
+     */
+    boolean hasPending() {
+        return buffer.getLong(WRITE_OFFSET) != buffer.getLong(READ_OFFSET);
+    }
+
+    /**
+     * Take every appended event out of the ring and hand them to the output.
+     *
+     * @return number of events drained.
+     */
+    synchronized int drain(@NonNull Output output) {
+        int length;
+        FileLock lock = null;
+        try {
+            lock = channel.lock(0, HEADER_SIZE, false);
+            long write = buffer.getLong(WRITE_OFFSET);
+            long read = buffer.getLong(READ_OFFSET);
+            length = (int) (write - read);
+            if (length <= 0 || length > capacity) {
+                buffer.putLong(READ_OFFSET, write);
+                return 0;
+            }
+            if (drained.length < length)
+                drained = new byte[Math.max(length, Math.min(drained.length * 2, capacity))];
+            get(read, drained, length);
+            buffer.putLong(READ_OFFSET, write);
+        } catch (IOException e) {
+            Timber.w(e, "Failed to drain the events of other processes");
+            return 0;
+        } finally {
+            release(lock);
+        }
+
+        // decode outside the file lock
+        ByteBuffer records = ByteBuffer.wrap(drained, 0, length);
+        int count = 0;
+        while (records.remaining() >= 4) {
+            int size = records.getInt();
+            if (size <= 0 || size > records.remaining())
+                break;
+            int end = records.position() + size;
+            try {
+                Event event = EventCodec.decode(records);
+                count++;
+                output.emit(event);
+            } catch (RuntimeException e) {
+                Timber.w(e, "Skipped an invalid event of another process");
+            }
+            records.position(end);
+        }
+        return count;
+    }
+
+    /**
+     * @return events dropped because the ring was full.
+     */
+    long getDroppedCount() {
+        return buffer.getLong(DROPPED_OFFSET);
+    }
+
+    private void put(long position, byte[] bytes, int length) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(length, capacity - offset);
+        ByteBuffer ring = buffer.duplicate();
+        ring.position(HEADER_SIZE + offset);
+        ring.put(bytes, 0, first);
+        if (first < length) {
+            ring.position(HEADER_SIZE);
+            ring.put(bytes, first, length - first);
+        }
+    }
+
+    private void get(long position, byte[] bytes, int length) {
+        int offset = (int) (position % capacity);
+        int first = Math.min(length, capacity - offset);
+        ByteBuffer ring = buffer.duplicate();
+        ring.position(HEADER_SIZE + offset);
+        ring.get(bytes, 0, first);
+        if (first < length) {
+            ring.position(HEADER_SIZE);
+            ring.get(bytes, first, length - first);
+        }
+    }
+
+    private static void release(FileLock lock) {
+        try {
+            if (lock != null)
+                lock.release();
+        } catch (IOException ignored) {
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package fm.castbox.eventlogger;
+
+import java.util.Arrays;
+
+/**
+ * Approximate quantiles of non negative longs: log-linear buckets with 8 sub-buckets per power of
+ * two, so a quantile is within 6.25% of the true value. Buckets grow with the largest value seen,
+ * at most 488 ints. Not thread safe.
+ */
+final class QuantileSketch {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private int[] counts = new int[SUB_BUCKETS * 2];
+    private long total;
+
+    void add(long value) {
+        int index = index(Math.max(0L, value));
+        if (index >= counts.length) {
+            int[] grown = new int[Math.max(index + 1, counts.length * 2)];
+            System.arraycopy(counts, 0, grown, 0, counts.length);
+            counts = grown;
+        }
+        counts[index]++;
+        total++;
+    }
+
+    /**
+     * @param quantile between 0 and 1.
+     * @return the middle of the bucket holding the quantile, 0 if empty.
+     */
+    long quantile(double quantile) {
+        if (total == 0)
+            return 0L;
+        long rank = (long) Math.ceil(quantile * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0)
+                return middle(i);
+        }
+        return middle(counts.length - 1);
+    }
+
+    static long middle(int index) {
+        long lower = lowerBound(index);
+        long upper = lowerBound(index + 1);
+        // the bucket of the largest longs has no upper bound
+        return upper < lower ? lower : lower + (upper - lower) / 2;
+    }
+
+    void clear() {
+        Arrays.fill(counts, 0);
+        total = 0;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKETS)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKETS)
+            return index;
+        int exponent = index / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = index & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS | sub) << (exponent - SUB_BITS);
+    }
+}
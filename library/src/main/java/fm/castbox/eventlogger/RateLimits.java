@@ -0,0 +1,61 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Client side limits for high frequency events, applied before events reach any backend, i.e.
+ * <pre>
+ * new RateLimits()
+ *         .limit("play_progress", 1, 5)
+ *         .limitCategory("scroll", 0.5, 3)
+ *         .sample("buffer_stall", 0.1);
+ * </pre>
+ * Rate limits drop the events over a steady rate, allowing short bursts. Sampling keeps or drops
+ * every event of a name for a user, decided by a hash of the user id, and adds
+ * {@link EventGovernor#PARAM_SAMPLING_WEIGHT} to the kept events so totals can be scaled back up.
+ */
+public final class RateLimits {
+
+    final Map<String, double[]> names = new LinkedHashMap<>();
+    final Map<String, double[]> categories = new LinkedHashMap<>();
+    final Map<String, Double> sampleRates = new LinkedHashMap<>();
+
+    /**
+     * @param eventsPerSecond steady rate of the events.
+     * @param burst           events allowed at once after a quiet period.
+     */
+    public RateLimits limit(@NonNull String eventName, double eventsPerSecond, int burst) {
+        names.put(eventName, bucket(eventsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Limit the events of a category together.
+     *
+     * @param eventsPerSecond steady rate of the events.
+     * @param burst           events allowed at once after a quiet period.
+     */
+    public RateLimits limitCategory(@NonNull String category, double eventsPerSecond, int burst) {
+        categories.put(category, bucket(eventsPerSecond, burst));
+        return this;
+    }
+
+    /**
+     * Only log an event name for this fraction of the users.
+     *
+     * @param rate between 0 and 1.
+     */
+    public RateLimits sample(@NonNull String eventName, double rate) {
+        sampleRates.put(eventName, Math.max(0, Math.min(1, rate)));
+        return this;
+    }
+
+    private static double[] bucket(double eventsPerSecond, int burst) {
+        if (eventsPerSecond <= 0 || burst <= 0)
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        return new double[]{eventsPerSecond, burst};
+    }
+}
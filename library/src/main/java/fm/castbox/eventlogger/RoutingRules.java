@@ -0,0 +1,99 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Which events a sink receives, i.e.
+ * <pre>
+ * new RoutingRules()
+ *         .allow("screen", "store")
+ *         .allowPrefix("play_")
+ *         .denyPrefix("play_progress")
+ *         .sample("play_buffering", 0.1);
+ * </pre>
+ * Deny rules win over allow rules. Without any allow rule every event not denied is allowed;
+ * once an allow method was called only the allowed events pass, none if it was given no names.
+ * Rules are compiled once into a lookup structure by {@link EventLogger#setRoutingRules(String, RoutingRules)},
+ * so matching does not get slower with the number of rules.
+ */
+public final class RoutingRules {
+
+    static final int ALLOW = 1;
+    static final int DENY = 1 << 1;
+
+    // rule -> flags, insertion ordered so compiling is deterministic
+    final Map<String, Integer> names = new LinkedHashMap<>();
+    final Map<String, Integer> prefixes = new LinkedHashMap<>();
+    final Map<String, Integer> categories = new LinkedHashMap<>();
+    final Map<String, Float> sampleRates = new LinkedHashMap<>();
+    // an allow method was called, even with no names
+    boolean hasAllowList;
+
+    /**
+     * Allow events by exact name.
+     */
+    public RoutingRules allow(@NonNull String... eventNames) {
+        hasAllowList = true;
+        for (String eventName : eventNames) {
+            add(names, eventName, ALLOW);
+        }
+        return this;
+    }
+
+    /**
+     * Allow events by exact name.
+     */
+    public RoutingRules allow(@NonNull Collection<String> eventNames) {
+        hasAllowList = true;
+        for (String eventName : eventNames) {
+            add(names, eventName, ALLOW);
+        }
+        return this;
+    }
+
+    public RoutingRules allowPrefix(@NonNull String prefix) {
+        hasAllowList = true;
+        add(prefixes, prefix, ALLOW);
+        return this;
+    }
+
+    public RoutingRules allowCategory(@NonNull String category) {
+        hasAllowList = true;
+        add(categories, category, ALLOW);
+        return this;
+    }
+
+    public RoutingRules deny(@NonNull String eventName) {
+        add(names, eventName, DENY);
+        return this;
+    }
+
+    public RoutingRules denyPrefix(@NonNull String prefix) {
+        add(prefixes, prefix, DENY);
+        return this;
+    }
+
+    public RoutingRules denyCategory(@NonNull String category) {
+        add(categories, category, DENY);
+        return this;
+    }
+
+    /**
+     * Only let a fraction of the allowed events with this name through.
+     *
+     * @param rate between 0 and 1.
+     */
+    public RoutingRules sample(@NonNull String eventName, double rate) {
+        sampleRates.put(eventName, (float) Math.max(0, Math.min(1, rate)));
+        return this;
+    }
+
+    private static void add(Map<String, Integer> rules, String key, int flag) {
+        Integer flags = rules.get(key);
+        rules.put(key, flags == null ? flag : flags | flag);
+    }
+}
@@ -0,0 +1,55 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single background thread shared by the timers of the event logger.
+ */
+final class Scheduler {
+
+    private static volatile ScheduledExecutorService executor;
+
+    private Scheduler() {
+    }
+
+    @NonNull
+    static ScheduledExecutorService get() {
+        ScheduledExecutorService result = executor;
+        if (result == null) {
+            synchronized (Scheduler.class) {
+                result = executor;
+                if (result == null) {
+                    ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                        @Override
+                        public Thread newThread(@NonNull Runnable r) {
+                            Thread thread = new Thread(r, "EventLogger-scheduler");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+                    executor = result = pool;
+                }
+            }
+        }
+        return result;
+    }
+
+    @NonNull
+    static ScheduledFuture<?> schedule(@NonNull final Runnable task, long delayMillis) {
+        return get().schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    task.run();
+                } catch (Throwable ignored) {
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,80 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Handle of a screen with its short names computed once. Obtain it with {@link #of(String)} or
+ * {@link #of(Class)} and keep it in a static field to make {@link EventLogger#logScreen} a plain
+ * field read.
+ */
+public final class ScreenKey {
+
+    /**
+     * firebase limits the item name of screen events to 36 chars.
+     */
+    static final int MAX_SHORT_NAME_LENGTH = 36;
+
+    final String screenName;
+    /**
+     * item name of screen events.
+     */
+    final String shortScreenName;
+    /**
+     * item name of screen life events, not truncated.
+     */
+    final String lifeScreenName;
+
+    ScreenKey(@NonNull String screenName, @NonNull String lifeScreenName) {
+        this.screenName = screenName;
+        this.lifeScreenName = lifeScreenName;
+        this.shortScreenName = lifeScreenName.length() > MAX_SHORT_NAME_LENGTH
+                ? lifeScreenName.substring(0, MAX_SHORT_NAME_LENGTH) : lifeScreenName;
+    }
+
+    /**
+     * @param screenName full screen name, i.e. fragment class name.
+     * @return the shared key of the screen, its short name is the last segment of the name.
+     */
+    @NonNull
+    public static ScreenKey of(@NonNull String screenName) {
+        return ScreenNameRegistry.get(screenName);
+    }
+
+    /**
+     * Register a screen with a stable short name, later lookups of the name return this key.
+     *
+     * @param screenName      full screen name, i.e. fragment class name.
+     * @param shortScreenName short name logged as the screen event item name.
+     */
+    @NonNull
+    public static ScreenKey of(@NonNull String screenName, @NonNull String shortScreenName) {
+        return ScreenNameRegistry.register(screenName, shortScreenName);
+    }
+
+    /**
+     * @param screenClass activity or fragment class, its {@link ScreenName} is used as the short
+     *                    name when present.
+     */
+    @NonNull
+    public static ScreenKey of(@NonNull Class<?> screenClass) {
+        ScreenName annotation = screenClass.getAnnotation(ScreenName.class);
+        if (annotation != null)
+            return of(screenClass.getName(), annotation.value());
+        return of(screenClass.getName());
+    }
+
+    @NonNull
+    public String getScreenName() {
+        return screenName;
+    }
+
+    @NonNull
+    public String getShortScreenName() {
+        return shortScreenName;
+    }
+
+    @Override
+    public String toString() {
+        return screenName;
+    }
+}
@@ -0,0 +1,23 @@
+package fm.castbox.eventlogger;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Stable short screen name of an activity or fragment class, picked up by
+ * {@link ScreenKey#of(Class)} instead of deriving it from the class name, so it survives
+ * renames and obfuscation.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ScreenName {
+
+    /**
+     * @return short screen name, logged as the screen event item name.
+     */
+    String value();
+}
@@ -0,0 +1,70 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Interning table of {@link ScreenKey}s, so the short name of a screen is computed once per
+ * distinct full name. Registered keys are kept for good, derived ones live in a small direct
+ * mapped cache so dynamic screen names can't grow it without bound. Neither takes a lock on
+ * lookup; two names sharing a cache slot evict each other, which only costs recomputing a key.
+ */
+final class ScreenNameRegistry {
+
+    // power of two
+    static final int MAX_CACHED = 128;
+
+    private static final Map<String, ScreenKey> registered = new ConcurrentHashMap<>();
+
+    private static final AtomicReferenceArray<ScreenKey> cache = new AtomicReferenceArray<>(MAX_CACHED);
+
+    private ScreenNameRegistry() {
+    }
+
+    @NonNull
+    static ScreenKey get(@NonNull String screenName) {
+        ScreenKey key = registered.get(screenName);
+        if (key != null)
+            return key;
+        int slot = slot(screenName);
+        key = cache.get(slot);
+        if (key != null && key.screenName.equals(screenName))
+            return key;
+        key = new ScreenKey(screenName, lastSegment(screenName));
+        cache.set(slot, key);
+        return key;
+    }
+
+    @NonNull
+    static ScreenKey register(@NonNull String screenName, @NonNull String shortScreenName) {
+        ScreenKey key = registered.get(screenName);
+        if (key != null && key.lifeScreenName.equals(shortScreenName))
+            return key;
+        key = new ScreenKey(screenName, shortScreenName);
+        registered.put(screenName, key);
+        int slot = slot(screenName);
+        ScreenKey cached = cache.get(slot);
+        if (cached != null && cached.screenName.equals(screenName))
+            cache.compareAndSet(slot, cached, null);
+        return key;
+    }
+
+    private static int slot(String screenName) {
+        int h = screenName.hashCode();
+        return (h ^ (h >>> 16)) & (MAX_CACHED - 1);
+    }
+
+    /**
+     * @return the last non empty '.' separated segment, the simple name of a class name.
+     */
+    @NonNull
+    static String lastSegment(@NonNull String screenName) {
+        int end = screenName.length();
+        while (end > 0 && screenName.charAt(end - 1) == '.')
+            end--;
+        return screenName.substring(screenName.lastIndexOf('.', end - 1) + 1, end);
+    }
+}
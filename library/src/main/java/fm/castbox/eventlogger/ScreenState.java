@@ -0,0 +1,50 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable snapshot of the current screen, swapped atomically by the logging threads.
+ */
+final class ScreenState {
+
+    static final ScreenState NONE = new ScreenState(null, null, null, 0L);
+
+    /**
+     * key of the current screen, null after the screen paused.
+     */
+    @Nullable
+    final ScreenKey key;
+    /**
+     * full screen name, null after the screen paused.
+     */
+    @Nullable
+    final String screenName;
+    /**
+     * short name of the last screen, kept after the screen paused.
+     */
+    @Nullable
+    final String shortScreenName;
+    /**
+     * elapsed realtime the screen was entered.
+     */
+    final long enterTime;
+
+    ScreenState(@NonNull ScreenKey key, long enterTime) {
+        this(key, key.screenName, key.shortScreenName, enterTime);
+    }
+
+    private ScreenState(@Nullable ScreenKey key, @Nullable String screenName, @Nullable String shortScreenName, long enterTime) {
+        this.key = key;
+        this.screenName = screenName;
+        this.shortScreenName = shortScreenName;
+        this.enterTime = enterTime;
+    }
+
+    /**
+     * @return a new state for the paused screen.
+     */
+    ScreenState paused() {
+        return new ScreenState(null, null, shortScreenName, 0L);
+    }
+}
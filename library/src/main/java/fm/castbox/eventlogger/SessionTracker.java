@@ -0,0 +1,172 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Sessions of the app, timed with {@link Clock#elapsedRealtime()} so changes of the wall clock do
+ * not affect them. A session starts when the app comes to the foreground and ends once it stayed
+ * in the background for the timeout, logging a start and an end event. A session id and a
+ * sequence number are stamped into each event logged while it lasts.
+ * <p>
+ * Transitions come from the main thread and the scheduler thread and are serialized; stamping
+ * reads the current session without locks. The end event of a session still open when the
+ * process dies is lost.
+ */
+final class SessionTracker {
+
+    interface Output {
+        void emit(@NonNull Event event);
+    }
+
+    static final String EVENT_NAME_SESSION_START = "app_session_start";
+    static final String EVENT_NAME_SESSION_END = "app_session_end";
+    static final String PARAM_SESSION_ID = "session_id";
+    static final String PARAM_SESSION_SEQ = "session_seq";
+    static final String PARAM_EVENTS = "events";
+
+    private final Clock clock;
+    private final long timeoutMillis;
+    // null to only tell the sessions apart, without logging them
+    private final Output output;
+    // null before the first session and after a session ended
+    private final AtomicReference<Session> current = new AtomicReference<>();
+    private ScheduledFuture<?> pendingEnd;
+
+    SessionTracker(@NonNull Clock clock, long timeoutMillis, @Nullable Output output) {
+        this.clock = clock;
+        this.timeoutMillis = timeoutMillis;
+        this.output = output;
+    }
+
+    /**
+     * Stamp an event with the current session, if any.
+     */
+    void stamp(@NonNull Event event) {
+        Session session = current.get();
+        if (session != null)
+            event.session(session.id, session.seq.incrementAndGet());
+    }
+
+    /**
+     * The app came to the foreground, resumes the session unless it timed out.
+     *
+     * @return true if a new session must be started with {@link #start(int)}.
+     */
+    synchronized boolean onForeground() {
+        long now = clock.elapsedRealtime();
+        cancelPendingEnd();
+        Session session = current.get();
+        if (session == null)
+            return true;
+        if (session.background && now - session.backgroundSince >= timeoutMillis) {
+            // the end was due while the device slept
+            end(session);
+            return true;
+        }
+        if (session.background) {
+            session.background = false;
+            session.foregroundSince = now;
+        }
+        return false;
+    }
+
+    /**
+     * Start a new session and log its start event.
+     *
+     * @param number sessions so far including this one, 0 if unknown.
+     */
+    synchronized void start(int number) {
+        Session previous = current.get();
+        if (previous != null)
+            end(previous);
+        Session session = new Session(clock.currentTimeMillis(), clock.elapsedRealtime());
+        current.set(session);
+        if (output == null)
+            return;
+        Event event = Event.obtain(EVENT_NAME_SESSION_START);
+        if (number > 0)
+            event.value(number);
+        output.emit(event);
+    }
+
+    /**
+     * The app went to the background, the session ends after the timeout unless the app comes back.
+     */
+    synchronized void onBackground() {
+        final Session session = current.get();
+        if (session == null || session.background)
+            return;
+        long now = clock.elapsedRealtime();
+        session.foregroundMillis += now - session.foregroundSince;
+        session.background = true;
+        session.backgroundSince = now;
+        if (timeoutMillis <= 0) {
+            end(session);
+            return;
+        }
+        cancelPendingEnd();
+        pendingEnd = Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                endIfIdle(session);
+            }
+        }, timeoutMillis);
+    }
+
+    /**
+     * @return id of the current session, 0 if there is none.
+     */
+    long getSessionId() {
+        Session session = current.get();
+        return session == null ? 0L : session.id;
+    }
+
+    private synchronized void endIfIdle(Session session) {
+        if (current.get() == session && session.background)
+            end(session);
+    }
+
+    /**
+     * Log the end event of a session, stamped with it, then close it.
+     */
+    private void end(Session session) {
+        if (output == null) {
+            current.compareAndSet(session, null);
+            return;
+        }
+        long foregroundMillis = session.foregroundMillis;
+        if (!session.background)
+            foregroundMillis += clock.elapsedRealtime() - session.foregroundSince;
+        output.emit(Event.obtain(EVENT_NAME_SESSION_END)
+                .value(foregroundMillis)
+                .putLong(PARAM_EVENTS, session.seq.get()));
+        current.compareAndSet(session, null);
+    }
+
+    private void cancelPendingEnd() {
+        if (pendingEnd != null) {
+            pendingEnd.cancel(false);
+            pendingEnd = null;
+        }
+    }
+
+    private static final class Session {
+        final long id;
+        final AtomicLong seq = new AtomicLong();
+        // guarded by the tracker
+        long foregroundSince;
+        long foregroundMillis;
+        boolean background;
+        long backgroundSince;
+
+        Session(long id, long foregroundSince) {
+            this.id = id;
+            this.foregroundSince = foregroundSince;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Call counts, errors and latency histograms of the methods of one sink, or of the public log
+ * methods for the caller metrics. Only created when metrics are enabled, callers check for null
+ * before reading the clock.
+ */
+final class SinkMetrics {
+
+    static final int LOG_EVENT = 0;
+    static final int LOG_EVENTS = 1;
+    static final int SET_USER_PROPERTY = 2;
+    static final int SET_USER_ID = 3;
+    static final int SET_CURRENT_SCREEN = 4;
+    static final int SET_USER_PROPERTIES = 5;
+
+    private static final String[] SINK_METHODS = {
+            "logEvent", "logEvents", "setUserProperty", "setUserId", "setCurrentScreen", "setUserProperties"
+    };
+
+    // public methods of the event logger, timed on the caller thread through the whole pipeline
+    static final int CALL_LOG_EVENT = 0;
+    static final int CALL_LOG_EVENT_VALUE = 1;
+    static final int CALL_LOG = 2;
+    static final int CALL_LOG_SCREEN = 3;
+    static final int CALL_LOG_SCREEN_PAUSE = 4;
+    static final int CALL_LOG_PURCHASE = 5;
+    static final int CALL_SET_USER_PROPERTY = 6;
+    static final int CALL_SET_USER_ID = 7;
+
+    private static final String[] CALLER_METHODS = {
+            "logEvent", "logEventValue", "log", "logScreen", "logScreenPause", "logPurchase", "setUserProperty", "setUserId"
+    };
+
+    private final String sinkName;
+    private final String[] names;
+    private final MethodMetrics[] methods;
+    // failure the pipeline swallowed during the timed caller method running on this thread
+    private final ThreadLocal<Throwable> callFailure = new ThreadLocal<>();
+
+    private SinkMetrics(@NonNull String sinkName, @NonNull String[] names) {
+        this.sinkName = sinkName;
+        this.names = names;
+        methods = new MethodMetrics[names.length];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = new MethodMetrics();
+        }
+    }
+
+    @NonNull
+    static SinkMetrics forSink(@NonNull String sinkName) {
+        return new SinkMetrics(sinkName, SINK_METHODS);
+    }
+
+    @NonNull
+    static SinkMetrics forCaller() {
+        return new SinkMetrics(MetricsSnapshot.CALLER, CALLER_METHODS);
+    }
+
+    /**
+     * Start timing a caller method, forgetting failures reported on this thread outside of one.
+     *
+     * @return start time to pass to {@link #finish(int, long)}.
+     */
+    long begin() {
+        callFailure.set(null);
+        return System.nanoTime();
+    }
+
+    /**
+     * Report a failure the pipeline swallowed on this thread, i.e. of an inline sink or a schema
+     * drop. The first one is recorded when the caller method finishes.
+     */
+    void callFailed(@NonNull Throwable error) {
+        if (callFailure.get() == null)
+            callFailure.set(error);
+    }
+
+    /**
+     * Record a caller method, as failed if a failure was reported since {@link #begin()}.
+     */
+    void finish(int method, long startNanos) {
+        Throwable error = callFailure.get();
+        if (error == null) {
+            success(method, startNanos);
+        } else {
+            callFailure.set(null);
+            failure(method, startNanos, error);
+        }
+    }
+
+    void success(int method, long startNanos) {
+        methods[method].histogram.record(System.nanoTime() - startNanos);
+    }
+
+    void failure(int method, long startNanos, @NonNull Throwable error) {
+        MethodMetrics metrics = methods[method];
+        metrics.histogram.record(System.nanoTime() - startNanos);
+        metrics.errors.incrementAndGet();
+        String name = error.getClass().getName();
+        AtomicLong count = metrics.errorsByClass.get(name);
+        if (count == null) {
+            AtomicLong created = new AtomicLong();
+            count = metrics.errorsByClass.putIfAbsent(name, created);
+            if (count == null)
+                count = created;
+        }
+        count.incrementAndGet();
+    }
+
+    /**
+     * Add the stats of the methods called at least once.
+     */
+    void snapshot(@NonNull List<MethodStats> result) {
+        for (int i = 0; i < methods.length; i++) {
+            MethodMetrics metrics = methods[i];
+            LatencyHistogram histogram = metrics.histogram;
+            if (histogram.getCount() == 0)
+                continue;
+            Map<String, Long> errorsByClass = new HashMap<>();
+            for (Map.Entry<String, AtomicLong> entry : metrics.errorsByClass.entrySet()) {
+                errorsByClass.put(entry.getKey(), entry.getValue().get());
+            }
+            result.add(new MethodStats(sinkName, names[i], histogram.getCount(), metrics.errors.get(), errorsByClass,
+                    histogram.getTotalNanos(), histogram.quantile(0.5), histogram.quantile(0.9),
+                    histogram.quantile(0.99), histogram.getMaxNanos()));
+        }
+    }
+
+    private static final class MethodMetrics {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong errors = new AtomicLong();
+        final ConcurrentHashMap<String, AtomicLong> errorsByClass = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,290 @@
+package fm.castbox.eventlogger;
+
+import android.app.Activity;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Calls one {@link EventSink} on the thread it asked for, and groups events for batching sinks.
+ * A failing sink never affects the other sinks.
+ * <p>
+ * The thread of a THREAD_BACKGROUND sink queues at most {@link #MAX_QUEUED_TASKS} calls or
+ * batches, the events of the calls beyond it are dropped and counted so a slow backend can not
+ * grow the heap without bound.
+ */
+final class SinkRunner {
+
+    static final int MAX_QUEUED_TASKS = 1024;
+
+    final EventSink sink;
+
+    // own thread for THREAD_BACKGROUND sinks
+    private final ExecutorService executor;
+    // null if the sink is not batching
+    private final EventBatcher batcher;
+    // null to accept every event, swapped at runtime without locking
+    private volatile EventRouter router;
+    // null while metrics are disabled
+    private volatile SinkMetrics metrics;
+    private volatile SinkMetrics callerMetrics;
+    // events dropped because the queue of the sink thread was full
+    private final AtomicLong dropped = new AtomicLong();
+
+    SinkRunner(@NonNull final EventSink sink) {
+        this.sink = sink;
+        if (sink.getThreadMode() == EventSink.THREAD_BACKGROUND) {
+            executor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(MAX_QUEUED_TASKS), new ThreadFactory() {
+                @Override
+                public Thread newThread(@NonNull Runnable r) {
+                    Thread thread = new Thread(r, "EventLogger-" + sink.getName());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        } else {
+            executor = null;
+        }
+        if (sink.isBatching()) {
+            batcher = new EventBatcher(sink, sink.getBatchPolicy(), new EventBatcher.Delivery() {
+                @Override
+                public boolean execute(@NonNull Runnable task) {
+                    return run(task);
+                }
+
+                @Override
+                public void completed(long startNanos, @Nullable Exception error) {
+                    SinkMetrics metrics = SinkRunner.this.metrics;
+                    if (metrics == null)
+                        return;
+                    if (error == null)
+                        metrics.success(SinkMetrics.LOG_EVENTS, startNanos);
+                    else
+                        metrics.failure(SinkMetrics.LOG_EVENTS, startNanos, error);
+                }
+            });
+        } else {
+            batcher = null;
+        }
+    }
+
+    void setRouter(@Nullable EventRouter router) {
+        this.router = router;
+    }
+
+    /**
+     * @param callerMetrics metrics of the public log methods, told about failures of the sink
+     *                      running inline on the caller thread.
+     */
+    void setMetrics(@Nullable SinkMetrics metrics, @Nullable SinkMetrics callerMetrics) {
+        this.metrics = metrics;
+        this.callerMetrics = executor == null ? callerMetrics : null;
+    }
+
+    /**
+     * Hand an event to the sink if its routing rules accept it. The event is retained for as long
+     * as the sink needs it.
+     */
+    void deliver(@NonNull Event event) {
+        final EventRouter router = this.router;
+        if (router != null && !router.accept(event.getName(), event.getCategory()))
+            return;
+
+        if (batcher != null) {
+            batcher.add(event);
+        } else if (executor == null) {
+            logEvent(event);
+        } else {
+            LogEvent task = new LogEvent(event.retain());
+            if (!run(task)) {
+                if (!executor.isShutdown())
+                    dropped.incrementAndGet();
+                event.release();
+            }
+        }
+    }
+
+    /**
+     * Deliver the pending batch now.
+     */
+    void flushBatch() {
+        if (batcher != null)
+            batcher.flush();
+    }
+
+    /**
+     * @return events dropped because the sink thread was too far behind, the dropped batches are
+     * counted in the batch statistics.
+     */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * @return batch statistics, null if the sink is not batching.
+     */
+    @Nullable
+    BatchStats getBatchStats() {
+        return batcher == null ? null : batcher.getStats();
+    }
+
+    void setUserProperty(@NonNull final String key, @Nullable final String value) {
+        run(new SinkCall(SinkMetrics.SET_USER_PROPERTY) {
+            @Override
+            void call() {
+                sink.setUserProperty(key, value);
+            }
+        });
+    }
+
+    /**
+     * Hand user properties to the sink, holding a reference to their event until it has them.
+     *
+     * @return false if the call was rejected by a full queue.
+     */
+    boolean setUserProperties(@NonNull final Map<String, String> properties, @NonNull Event event) {
+        final Event held = event.retain();
+        boolean accepted = run(new SinkCall(SinkMetrics.SET_USER_PROPERTIES) {
+            @Override
+            void call() {
+                try {
+                    sink.setUserProperties(properties);
+                } finally {
+                    held.release();
+                }
+            }
+        });
+        if (!accepted)
+            event.release();
+        return accepted;
+    }
+
+    void setUserId(@Nullable final String userId) {
+        run(new SinkCall(SinkMetrics.SET_USER_ID) {
+            @Override
+            void call() {
+                sink.setUserId(userId);
+            }
+        });
+    }
+
+    void setCurrentScreen(@NonNull final Activity activity, @NonNull final String screenName) {
+        // on the caller thread, the sdks need the main thread here
+        new SinkCall(SinkMetrics.SET_CURRENT_SCREEN) {
+            @Override
+            void call() {
+                sink.setCurrentScreen(activity, screenName);
+            }
+        }.run();
+    }
+
+    void shutdown() {
+        flushBatch();
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Same as a {@link SinkCall}, without allocating on the event path.
+     */
+    private void logEvent(@NonNull Event event) {
+        final SinkMetrics metrics = this.metrics;
+        final long start = metrics == null ? 0L : System.nanoTime();
+        try {
+            sink.logEvent(event);
+            if (metrics != null)
+                metrics.success(SinkMetrics.LOG_EVENT, start);
+        } catch (Exception e) {
+            if (metrics != null)
+                metrics.failure(SinkMetrics.LOG_EVENT, start, e);
+            SinkMetrics caller = callerMetrics;
+            if (caller != null)
+                caller.callFailed(e);
+        }
+    }
+
+    /**
+     * @return false if the task was rejected because the queue is full or the sink was removed.
+     */
+    private boolean run(@NonNull final Runnable task) {
+        if (executor == null) {
+            runSafely(task);
+            return true;
+        }
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    runSafely(task);
+                }
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private static void runSafely(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception ignored) {
+        }
+    }
+
+    /**
+     * A call of a sink method, timed when metrics are enabled. Exceptions are counted, never thrown.
+     */
+    private abstract class SinkCall implements Runnable {
+        private final int method;
+
+        SinkCall(int method) {
+            this.method = method;
+        }
+
+        abstract void call();
+
+        @Override
+        public void run() {
+            final SinkMetrics metrics = SinkRunner.this.metrics;
+            final long start = metrics == null ? 0L : System.nanoTime();
+            try {
+                call();
+                if (metrics != null)
+                    metrics.success(method, start);
+            } catch (Exception e) {
+                if (metrics != null)
+                    metrics.failure(method, start, e);
+                SinkMetrics caller = callerMetrics;
+                if (caller != null)
+                    caller.callFailed(e);
+            }
+        }
+    }
+
+    private final class LogEvent implements Runnable {
+        private final Event event;
+
+        LogEvent(Event event) {
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            try {
+                logEvent(event);
+            } finally {
+                event.release();
+            }
+        }
+    }
+}
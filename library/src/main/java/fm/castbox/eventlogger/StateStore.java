@@ -0,0 +1,469 @@
+package fm.castbox.eventlogger;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+import timber.log.Timber;
+
+/**
+ * Launch, session and milestone state of the event logger, kept in memory and persisted to a small binary
+ * file instead of SharedPreferences.
+ * <p>
+ * The file is read once on the scheduler thread when the store is opened, later reads are plain
+ * field reads. Changes are written back together a little later, to a temp file renamed over the
+ * state file, so a crash never leaves a half written state.
+ * <p>
+ * File layout: magic (int), version (byte), first launch time (long), fired milestone count (int)
+ * followed by their names (UTF), session count (int), utm source, medium and campaign (nullable UTF strings), user property
+ * count (int) followed by the key (UTF) and value (nullable UTF) of each property, install
+ * referrer status (byte), url (nullable UTF), click and install begin time (long), crc32 of the
+ * preceding bytes (int).
+ */
+final class StateStore {
+
+    private static final int MAGIC = 0x454c5331; // ELS1
+    private static final int VERSION = 1;
+    private static final long WRITE_DELAY = 1000L;
+    // max time a caller waits for the state to be read
+    private static final long LOAD_TIMEOUT = 500L;
+
+    // preferences the state was kept in before
+    private static final String LEGACY_PREFERENCES = "EventLogger";
+    private static final String KEY_FIRST_LAUNCH_DATE = "firstLaunchDate";
+    private static final String KEY_RETENTION_D2 = "rd2";
+    private static final String KEY_RETENTION_W2 = "rw2";
+    private static final String KEY_RETENTION_M2 = "rm2";
+
+    // milestones the legacy retention flags stand for
+    private static final String RETENTION_D2 = "retention_d2";
+    private static final String RETENTION_W2 = "retention_w2";
+    private static final String RETENTION_M2 = "retention_m2";
+
+    // install referrer status
+    private static final int REFERRER_UNKNOWN = 0;
+    private static final int REFERRER_FETCHED = 1;
+    private static final int REFERRER_UNAVAILABLE = 2;
+
+    private final File file;
+    private final CountDownLatch loaded = new CountDownLatch(1);
+    private final AtomicBoolean writeScheduled = new AtomicBoolean(false);
+    // bumped on every change, the writer compares it with the last written one
+    private final AtomicInteger modCount = new AtomicInteger(0);
+    private int writtenCount = 0;
+
+    private volatile long firstLaunchTime;
+    // names of the fired milestones, guarded by this
+    private final Set<String> milestones = new HashSet<>();
+    // fired milestones as bits of the schedule last asked for, null once a milestone fired
+    private volatile FiredBits firedBits;
+    private final AtomicInteger sessions = new AtomicInteger(0);
+    private volatile String utmSource;
+    private volatile String utmMedium;
+    private volatile String utmCampaign;
+    // user properties last handed to the backends, guarded by this
+    private final Map<String, String> userProperties = new HashMap<>();
+    private volatile int referrerStatus = REFERRER_UNKNOWN;
+    private volatile InstallReferrer installReferrer;
+
+    private final Runnable writer = new Runnable() {
+        @Override
+        public void run() {
+            writeScheduled.set(false);
+            sync();
+        }
+    };
+
+    private StateStore(@NonNull File file) {
+        this.file = file;
+    }
+
+    /**
+     * Open the state file, it is read in the background.
+     */
+    @NonNull
+    static StateStore open(@NonNull final Context context, @NonNull File file) {
+        final StateStore store = new StateStore(file);
+        Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    store.load(context);
+                } finally {
+                    store.loaded.countDown();
+                }
+            }
+        }, 0L);
+        return store;
+    }
+
+    boolean isLoaded() {
+        return loaded.getCount() == 0;
+    }
+
+    /**
+     * Run a task now if the state is read, otherwise on the scheduler thread once it is, so the
+     * caller never waits for the file.
+     */
+    void whenLoaded(@NonNull final Runnable task) {
+        if (isLoaded()) {
+            task.run();
+            return;
+        }
+        // queued behind the read on the same thread
+        Scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (awaitLoaded())
+                    task.run();
+            }
+        }, 0L);
+    }
+
+    /**
+     * @return false if the state is still not read after a short wait.
+     */
+    boolean awaitLoaded() {
+        if (isLoaded())
+            return true;
+        try {
+            return loaded.await(LOAD_TIMEOUT, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return time of the first launch, set to now on the first call after installation.
+     */
+    long getFirstLaunchTime(long now) {
+        if (!awaitLoaded())
+            return now;
+        long launchTime = firstLaunchTime;
+        if (launchTime == 0L) {
+            synchronized (this) {
+                launchTime = firstLaunchTime;
+                if (launchTime == 0L) {
+                    firstLaunchTime = launchTime = now;
+                    changed();
+                }
+            }
+        }
+        return launchTime;
+    }
+
+    /**
+     * @return bits of the fired milestones in a schedule. Milestones are remembered by name, so
+     * the bits follow the milestones when the schedule changes.
+     */
+    long getMilestones(@NonNull MilestoneSchedule schedule) {
+        FiredBits fired = firedBits;
+        if (fired != null && fired.schedule == schedule)
+            return fired.bits;
+        synchronized (this) {
+            long bits = schedule.bitsOf(milestones);
+            firedBits = new FiredBits(schedule, bits);
+            return bits;
+        }
+    }
+
+    /**
+     * Claim a milestone, so it is logged once even with concurrent callers.
+     *
+     * @return true if the caller should log the milestone event.
+     */
+    boolean claimMilestone(@NonNull String name) {
+        if (!awaitLoaded())
+            return false;
+        synchronized (this) {
+            if (!milestones.add(name))
+                return false;
+            firedBits = null;
+        }
+        changed();
+        return true;
+    }
+
+    int getSessions() {
+        return sessions.get();
+    }
+
+    /**
+     * @return the number of sessions including the new one.
+     */
+    int startSession() {
+        if (!awaitLoaded())
+            return sessions.get();
+        int count = sessions.incrementAndGet();
+        changed();
+        return count;
+    }
+
+    @Nullable
+    String getUtmSource() {
+        return utmSource;
+    }
+
+    @Nullable
+    String getUtmMedium() {
+        return utmMedium;
+    }
+
+    @Nullable
+    String getUtmCampaign() {
+        return utmCampaign;
+    }
+
+    void setUtm(@Nullable String source, @Nullable String medium, @Nullable String campaign) {
+        if (!awaitLoaded())
+            return;
+        synchronized (this) {
+            if (source != null)
+                utmSource = source;
+            if (medium != null)
+                utmMedium = medium;
+            if (campaign != null)
+                utmCampaign = campaign;
+        }
+        changed();
+    }
+
+    /**
+     * @return the user properties last handed to the backends.
+     */
+    @NonNull
+    Map<String, String> getUserProperties() {
+        if (!awaitLoaded())
+            return new HashMap<>();
+        synchronized (this) {
+            return new HashMap<>(userProperties);
+        }
+    }
+
+    void putUserProperties(@NonNull Map<String, String> properties) {
+        if (!awaitLoaded())
+            return;
+        synchronized (this) {
+            userProperties.putAll(properties);
+        }
+        changed();
+    }
+
+    /**
+     * @return true once the install referrer was fetched, or Google Play told it never will be.
+     */
+    boolean isInstallReferrerDone() {
+        return awaitLoaded() && referrerStatus != REFERRER_UNKNOWN;
+    }
+
+    @Nullable
+    InstallReferrer getInstallReferrer() {
+        return awaitLoaded() ? installReferrer : null;
+    }
+
+    /**
+     * @param referrer the fetched referrer, null if the install referrer is not available.
+     */
+    void setInstallReferrer(@Nullable InstallReferrer referrer) {
+        if (!awaitLoaded())
+            return;
+        synchronized (this) {
+            installReferrer = referrer;
+            referrerStatus = referrer != null ? REFERRER_FETCHED : REFERRER_UNAVAILABLE;
+        }
+        changed();
+    }
+
+    private void changed() {
+        modCount.incrementAndGet();
+        if (writeScheduled.compareAndSet(false, true))
+            Scheduler.schedule(writer, WRITE_DELAY);
+    }
+
+    /**
+     * Write pending changes now.
+     */
+    synchronized void sync() {
+        int count = modCount.get();
+        if (count == writtenCount || !isLoaded())
+            return;
+        try {
+            write();
+            writtenCount = count;
+        } catch (IOException e) {
+            Timber.w(e, "Failed to write event logger state");
+        }
+    }
+
+    private void load(Context context) {
+        if (file.isFile()) {
+            try {
+                read();
+                return;
+            } catch (IOException e) {
+                Timber.w(e, "Invalid event logger state, reading preferences");
+            }
+        }
+        // first start with this version, take over the state kept in the preferences
+        try {
+            SharedPreferences preferences = context.getSharedPreferences(LEGACY_PREFERENCES, Context.MODE_PRIVATE);
+            firstLaunchTime = preferences.getLong(KEY_FIRST_LAUNCH_DATE, 0L);
+            synchronized (this) {
+                if (preferences.getBoolean(KEY_RETENTION_D2, false))
+                    milestones.add(RETENTION_D2);
+                if (preferences.getBoolean(KEY_RETENTION_W2, false))
+                    milestones.add(RETENTION_W2);
+                if (preferences.getBoolean(KEY_RETENTION_M2, false))
+                    milestones.add(RETENTION_M2);
+                firedBits = null;
+            }
+        } catch (Exception ignored) {
+        }
+        // the install time of a new installation
+        if (firstLaunchTime == 0L)
+            firstLaunchTime = System.currentTimeMillis();
+        modCount.incrementAndGet();
+        // loaded is counted down after this returns, write on the next tick
+        if (writeScheduled.compareAndSet(false, true))
+            Scheduler.schedule(writer, 0L);
+    }
+
+    private void read() throws IOException {
+        byte[] bytes = new byte[(int) file.length()];
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        try {
+            in.readFully(bytes);
+        } finally {
+            in.close();
+        }
+        if (bytes.length < 4)
+            throw new IOException("Truncated state file");
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        DataInputStream data = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (data.readInt() != MAGIC)
+            throw new IOException("Unknown state file");
+        int version = data.readByte();
+        if (version != VERSION)
+            throw new IOException("Unknown state file version " + version);
+        long launchTime = data.readLong();
+        Set<String> fired = new HashSet<>();
+        for (int i = data.readInt(); i > 0; i--) {
+            fired.add(data.readUTF());
+        }
+        int sessionCount = data.readInt();
+        String source = readString(data);
+        String medium = readString(data);
+        String campaign = readString(data);
+        Map<String, String> properties = new HashMap<>();
+        for (int i = data.readInt(); i > 0; i--) {
+            properties.put(data.readUTF(), readString(data));
+        }
+        int status = data.readByte();
+        String url = readString(data);
+        long clickTime = data.readLong();
+        long installBeginTime = data.readLong();
+        InstallReferrer referrer = status == REFERRER_FETCHED
+                ? new InstallReferrer(url, clickTime, installBeginTime) : null;
+        if (data.readInt() != (int) crc.getValue())
+            throw new IOException("State file checksum mismatch");
+
+        firstLaunchTime = launchTime;
+        sessions.set(sessionCount);
+        utmSource = source;
+        utmMedium = medium;
+        utmCampaign = campaign;
+        synchronized (this) {
+            milestones.addAll(fired);
+            firedBits = null;
+            userProperties.putAll(properties);
+            referrerStatus = status;
+            installReferrer = referrer;
+        }
+    }
+
+    private void write() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream data = new DataOutputStream(bytes);
+        data.writeInt(MAGIC);
+        data.writeByte(VERSION);
+        data.writeLong(firstLaunchTime);
+        data.writeInt(milestones.size());
+        for (String name : milestones) {
+            data.writeUTF(name);
+        }
+        data.writeInt(sessions.get());
+        writeString(data, utmSource);
+        writeString(data, utmMedium);
+        writeString(data, utmCampaign);
+        data.writeInt(userProperties.size());
+        for (Map.Entry<String, String> property : userProperties.entrySet()) {
+            data.writeUTF(property.getKey());
+            writeString(data, property.getValue());
+        }
+        InstallReferrer referrer = installReferrer;
+        data.writeByte(referrerStatus);
+        writeString(data, referrer != null ? referrer.getUrl() : null);
+        data.writeLong(referrer != null ? referrer.getClickTimeMillis() : 0L);
+        data.writeLong(referrer != null ? referrer.getInstallBeginTimeMillis() : 0L);
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        data.writeInt((int) crc.getValue());
+
+        File parent = file.getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+            throw new IOException("Can not create " + parent);
+        File temp = new File(file.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            bytes.writeTo(out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file))
+            throw new IOException("Can not rename " + temp);
+    }
+
+    @Nullable
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeString(DataOutputStream out, @Nullable String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null)
+            out.writeUTF(value);
+    }
+
+    private static final class FiredBits {
+        final MilestoneSchedule schedule;
+        final long bits;
+
+        FiredBits(MilestoneSchedule schedule, long bits) {
+            this.schedule = schedule;
+            this.bits = bits;
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads a trace written by {@link TraceRecorderSink} record by record. A record cut short by a
+ * crash ends the trace.
+ */
+final class TraceReader implements Closeable {
+
+    private final DataInputStream in;
+    private long timeNanos;
+    private byte[] payload;
+
+    TraceReader(@NonNull File file) throws IOException {
+        in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        try {
+            if (in.readInt() != TraceRecorderSink.MAGIC)
+                throw new IOException("Not an event trace: " + file);
+            int version = in.readByte();
+            if (version != TraceRecorderSink.VERSION)
+                throw new IOException("Unknown trace version " + version);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Move to the next record.
+     *
+     * @return false at the end of the trace.
+     */
+    boolean next() throws IOException {
+        try {
+            long time = in.readLong();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            timeNanos = time;
+            payload = bytes;
+            return true;
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return time of the record since the recording started.
+     */
+    long getTimeNanos() {
+        return timeNanos;
+    }
+
+    /**
+     * @return the encoded event of the record.
+     */
+    @NonNull
+    byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * @return a pooled event owned by the caller.
+     */
+    @NonNull
+    static Event decode(@NonNull byte[] payload) {
+        return EventCodec.decode(ByteBuffer.wrap(payload));
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
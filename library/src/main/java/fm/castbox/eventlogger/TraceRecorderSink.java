@@ -0,0 +1,127 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import timber.log.Timber;
+
+/**
+ * Records the events handed to the backends into a compact binary trace, which the replay driver
+ * of the benchmark module plays back to compare dispatcher and sink setups offline:
+ * <pre>
+ * EventLogger.getInstance().addEventSink(new TraceRecorderSink(new File(getFilesDir(), "session.trace")));
+ * </pre>
+ * Trace layout: magic (int), version (byte), then per call the time since the recording started
+ * in nanos (long), the payload size (int) and the event written by {@link EventCodec}. User
+ * property and user id calls are recorded as events of the matching type. Times are taken on the
+ * dispatcher thread, so with async dispatching they trail the log calls slightly.
+ */
+public class TraceRecorderSink extends AbstractEventSink {
+
+    static final int MAGIC = 0x454c5431; // ELT1
+    static final int VERSION = 1;
+
+    private final String name;
+    private final long startNanos = System.nanoTime();
+    private DataOutputStream out;
+    private ByteBuffer buffer = ByteBuffer.allocate(512);
+
+    public TraceRecorderSink(@NonNull File file) throws IOException {
+        this("trace", file);
+    }
+
+    public TraceRecorderSink(@NonNull String name, @NonNull File file) throws IOException {
+        this.name = name;
+        out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+        out.writeInt(MAGIC);
+        out.writeByte(VERSION);
+    }
+
+    @NonNull
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void logEvent(@NonNull Event event) {
+        record(event, System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String key, @Nullable String value) {
+        Event event = Event.obtain(Event.TYPE_USER_PROPERTY, key).itemName(value);
+        logEvent(event);
+        event.release();
+    }
+
+    @Override
+    public void setUserProperties(@NonNull Map<String, String> properties) {
+        Event event = Event.obtain(Event.TYPE_USER_PROPERTIES, null);
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            event.putString(property.getKey(), property.getValue());
+        }
+        logEvent(event);
+        event.release();
+    }
+
+    @Override
+    public void setUserId(@Nullable String userId) {
+        Event event = Event.obtain(Event.TYPE_USER_ID, null).itemName(userId);
+        logEvent(event);
+        event.release();
+    }
+
+    /**
+     * Append an event at the given time, also used to write synthetic traces.
+     */
+    synchronized void record(@NonNull Event event, long timeNanos) {
+        if (out == null)
+            return;
+        buffer.clear();
+        buffer = EventCodec.encode(event, buffer);
+        try {
+            out.writeLong(timeNanos);
+            out.writeInt(buffer.position());
+            out.write(buffer.array(), 0, buffer.position());
+        } catch (IOException e) {
+            Timber.w(e, "Failed to record event, recording stopped");
+            close();
+        }
+    }
+
+    /**
+     * Write the buffered records to the file.
+     */
+    public synchronized void flush() {
+        if (out == null)
+            return;
+        try {
+            out.flush();
+        } catch (IOException e) {
+            Timber.w(e, "Failed to flush trace");
+        }
+    }
+
+    /**
+     * Stop recording and close the file, later calls are ignored.
+     */
+    public synchronized void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            Timber.w(e, "Failed to close trace");
+        }
+        out = null;
+    }
+}
@@ -0,0 +1,145 @@
+package fm.castbox.eventlogger;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Coalesces user property updates: properties set within {@link #DELAY} of each other are handed
+ * to the backends as one {@link Event#TYPE_USER_PROPERTIES} event, without the ones equal to what
+ * the backends already got. Values are recorded, and kept in the {@link StateStore}, only once
+ * every backend is done with them, so an update lost on the way is sent again on the next change
+ * and values are not sent again after a restart.
+ */
+final class UserPropertyStore {
+
+    interface Output {
+        /**
+         * Log the changed properties, takes over the reference to the event.
+         */
+        void emit(@NonNull Event event);
+    }
+
+    static final long DELAY = 1000L;
+
+    private final Output output;
+    // null if the values are not persisted
+    private volatile StateStore state;
+
+    // properties set since the last flush, in order
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    // properties the backends are done with, null until read from the state
+    private Map<String, String> sent;
+    private ScheduledFuture<?> trigger;
+
+    private final Runnable delayedFlush = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    UserPropertyStore(@NonNull Output output) {
+        this.output = output;
+    }
+
+    void setState(@Nullable final StateStore state) {
+        synchronized (this) {
+            this.state = state;
+            sent = null;
+        }
+        if (state == null)
+            return;
+        // read in the background, the properties flushed before are not skipped
+        state.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, String> snapshot = state.getUserProperties();
+                synchronized (UserPropertyStore.this) {
+                    if (UserPropertyStore.this.state == state)
+                        sent = snapshot;
+                }
+            }
+        });
+    }
+
+    void set(@NonNull String key, @Nullable String value) {
+        synchronized (this) {
+            if (pending.containsKey(key) && equals(pending.get(key), value))
+                return;
+            pending.put(key, value);
+            if (trigger == null)
+                trigger = Scheduler.schedule(delayedFlush, DELAY);
+        }
+    }
+
+    /**
+     * Hand the changed properties to the backends now. Before the state is read nothing is known
+     * to be sent, so every pending property is handed over.
+     */
+    void flush() {
+        Map<String, String> changed = new LinkedHashMap<>();
+        synchronized (this) {
+            if (trigger != null) {
+                trigger.cancel(false);
+                trigger = null;
+            }
+            if (pending.isEmpty())
+                return;
+            // without state the sent values are only kept in memory
+            if (sent == null && state == null)
+                sent = new HashMap<>();
+            for (Map.Entry<String, String> property : pending.entrySet()) {
+                String key = property.getKey();
+                String value = property.getValue();
+                if (sent == null || !sent.containsKey(key) || !equals(sent.get(key), value))
+                    changed.put(key, value);
+            }
+            pending.clear();
+        }
+        if (changed.isEmpty())
+            return;
+        Event event = Event.obtain(Event.TYPE_USER_PROPERTIES, null);
+        for (Map.Entry<String, String> property : changed.entrySet()) {
+            event.putString(property.getKey(), property.getValue());
+        }
+        output.emit(event);
+    }
+
+    /**
+     * Every backend is done with the properties of an event, record them as sent.
+     */
+    void delivered(@NonNull Event event) {
+        final Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < event.getParamCount(); i++) {
+            properties.put(event.getParamKey(i), event.getString(i));
+        }
+        final StateStore state = this.state;
+        if (state == null) {
+            synchronized (this) {
+                if (sent != null && this.state == null)
+                    sent.putAll(properties);
+            }
+            return;
+        }
+        // never wait for the state on the thread releasing the event
+        state.whenLoaded(new Runnable() {
+            @Override
+            public void run() {
+                state.putUserProperties(properties);
+                synchronized (UserPropertyStore.this) {
+                    if (sent != null && UserPropertyStore.this.state == state)
+                        sent.putAll(properties);
+                }
+            }
+        });
+    }
+
+    private static boolean equals(@Nullable String a, @Nullable String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}